@@ -0,0 +1,164 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dsf.dbxtract.cdc.e2e;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.dsf.dbxtract.cdc.Data;
+import com.dsf.dbxtract.cdc.PublishException;
+import com.dsf.dbxtract.cdc.journal.JournalHandler;
+import com.dsf.dbxtract.cdc.journal.JournalStrategy;
+
+/**
+ * <p>
+ * A handler that only counts published rows, so the harness measures the
+ * capture path and not a destination. Each strategy has its own subclass,
+ * journal table and target table:
+ * </p>
+ * <ul>
+ * <li>{@link Delete}: j$bench_delete / bench_delete</li>
+ * <li>{@link Window}: j$bench_window / bench_window</li>
+ * </ul>
+ * <p>
+ * Capture settings are read from system properties (see
+ * {@link ThroughputHarness}).
+ * </p>
+ * 
+ * @author fabio de santi
+ */
+public abstract class CountingHandler implements JournalHandler {
+
+	private static final Map<String, LongAdder> published = new ConcurrentHashMap<>();
+
+	private final String table;
+	private final JournalStrategy strategy;
+
+	CountingHandler(String table, JournalStrategy strategy) {
+		this.table = table;
+		this.strategy = strategy;
+	}
+
+	/**
+	 * 
+	 * @param handler
+	 *            handler's class
+	 * @return rows published by all instances of the handler
+	 */
+	static long getPublished(Class<? extends CountingHandler> handler) {
+		LongAdder counter = published.get(handler.getName());
+		return counter == null ? 0L : counter.sum();
+	}
+
+	/**
+	 * 
+	 * @return captured table's name
+	 */
+	public String getTable() {
+		return table;
+	}
+
+	@Override
+	public String getJournalTable() {
+		return "j$" + table;
+	}
+
+	@Override
+	public int getBatchSize() {
+		return Integer.getInteger("e2e.batch", 1000);
+	}
+
+	@Override
+	public String getTargetQuery() {
+		return "select * from " + table + " where id = :id";
+	}
+
+	@Override
+	public int getLookupChunkSize() {
+		return Integer.getInteger("e2e.lookup.chunk", 50);
+	}
+
+	@Override
+	public int getPublishChunkSize() {
+		return Integer.getInteger("e2e.publish.chunk", 0);
+	}
+
+	@Override
+	public long getDrainTimeBudget() {
+		return Long.getLong("e2e.drain.time", 1000L);
+	}
+
+	@Override
+	public int getPartitions() {
+		return Integer.getInteger("e2e.partitions", 1);
+	}
+
+	@Override
+	public String getPartitionKey() {
+		return "id";
+	}
+
+	@Override
+	public boolean isColumnar() {
+		return Boolean.getBoolean("e2e.columnar");
+	}
+
+	@Override
+	public void publish(Data data) throws PublishException {
+		published.computeIfAbsent(getClass().getName(), k -> new LongAdder()).add(data.getRows().size());
+	}
+
+	@Override
+	public JournalStrategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Counting handler for the {@link JournalStrategy#DELETE} strategy.
+	 */
+	public static class Delete extends CountingHandler {
+		public Delete() {
+			super("bench_delete", JournalStrategy.DELETE);
+		}
+	}
+
+	/**
+	 * Counting handler for the {@link JournalStrategy#WINDOW} strategy.
+	 */
+	public static class Window extends CountingHandler {
+		public Window() {
+			super("bench_window", JournalStrategy.WINDOW);
+		}
+
+		@Override
+		public int getPipelineDepth() {
+			return Integer.getInteger("e2e.pipeline.depth", 0);
+		}
+
+		@Override
+		public String getJoinQuery() {
+			if (!Boolean.getBoolean("e2e.join"))
+				return null;
+			return "select j.window_id, t.* from j$" + getTable() + " j join " + getTable()
+					+ " t on t.id = j.id where j.window_id > :window_id"
+					+ (getPartitions() > 1 ? " and mod(abs(coalesce(j.id, 0)), :partitions) = :partition" : "")
+					+ " order by j.window_id";
+		}
+	}
+}
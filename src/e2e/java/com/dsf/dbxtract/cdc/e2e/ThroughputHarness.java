@@ -0,0 +1,352 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dsf.dbxtract.cdc.e2e;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.test.TestingServer;
+
+import com.dsf.dbxtract.cdc.App;
+import com.dsf.dbxtract.cdc.Config;
+import com.dsf.dbxtract.cdc.journal.JournalStrategy;
+import com.dsf.dbxtract.cdc.mon.HandlerMetrics;
+import com.dsf.dbxtract.cdc.mon.LatencyHistogram;
+import com.dsf.dbxtract.cdc.mon.Metrics;
+import com.dsf.dbxtract.cdc.mon.Stage;
+
+/**
+ * <p>
+ * End-to-end throughput harness: runs {@link App} against an in-memory H2
+ * database and an in-process ZooKeeper server, with a {@link CountingHandler}
+ * per journal strategy, and reports sustained rows/sec, capture cycle latency
+ * percentiles and journal lag. No network service is needed:
+ * </p>
+ * 
+ * <pre>
+ * mvn -Pe2e test
+ * mvn -Pe2e test -De2e.rows=500000 -De2e.min.rps=10000
+ * mvn -Pe2e test -De2e.args="-De2e.rate=20000 -De2e.strategies=WINDOW"
+ * </pre>
+ * <p>
+ * Settings (system properties; the maven profile forwards e2e.rows, e2e.rate
+ * and e2e.min.rps, other settings are given by e2e.args):
+ * </p>
+ * <table summary="harness settings">
+ * <tr>
+ * <td>e2e.strategies</td>
+ * <td>strategies to be measured (default DELETE,WINDOW)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.rows</td>
+ * <td>rows seeded in journal and target tables before the agent starts
+ * (default 100000)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.columns</td>
+ * <td>varchar columns of the target table (default 8)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.value.size</td>
+ * <td>characters per varchar column (default 32)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.rate</td>
+ * <td>rows per second inserted while the agent runs (default 0)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.duration</td>
+ * <td>seconds rows are inserted, when e2e.rate is set (default 30)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.timeout</td>
+ * <td>seconds to wait for the journal to be drained (default 300)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.min.rps</td>
+ * <td>fails (exit status 1) when any strategy captures fewer rows/sec
+ * (default 0)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.interval, e2e.threads</td>
+ * <td>agent's <code>interval</code> and <code>thread.pool.size</code>
+ * (default 100 and 2)</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.batch, e2e.lookup.chunk, e2e.publish.chunk, e2e.drain.time,
+ * e2e.pipeline.depth, e2e.partitions, e2e.columnar</td>
+ * <td>handler settings (see {@link CountingHandler})</td>
+ * </tr>
+ * <tr>
+ * <td>e2e.join</td>
+ * <td>WINDOW strategy captures with a join query instead of the target
+ * query (default false)</td>
+ * </tr>
+ * </table>
+ * 
+ * @author fabio de santi
+ */
+public class ThroughputHarness {
+
+	private static final String URL = "jdbc:h2:mem:dbxtract;DB_CLOSE_DELAY=-1";
+	private static final int INSERT_BATCH = 1000;
+	private static final long SAMPLE_INTERVAL = 100L;
+
+	private final TestingServer zookeeper;
+	private final Connection conn;
+	private final int columns = Integer.getInteger("e2e.columns", 8);
+	private final String value;
+
+	/**
+	 * Measures of a single strategy run.
+	 */
+	static class Result {
+		JournalStrategy strategy;
+		long produced;
+		long published;
+		long elapsed;
+		long maxLagRows;
+		long maxLagMillis;
+		long journalLeft; // DELETE strategy only
+		LatencyHistogram cycles;
+		boolean drained;
+
+		double getRowsPerSecond() {
+			return elapsed == 0 ? 0d : published * 1000d / elapsed;
+		}
+	}
+
+	ThroughputHarness(TestingServer zookeeper, Connection conn) {
+		this.zookeeper = zookeeper;
+		this.conn = conn;
+		StringBuilder sb = new StringBuilder();
+		for (int i = Integer.getInteger("e2e.value.size", 32); i > 0; i--)
+			sb.append((char) ('a' + i % 26));
+		this.value = sb.toString();
+	}
+
+	private void createTables(String table) throws SQLException {
+
+		StringBuilder ddl = new StringBuilder("create table ").append(table).append(" (id bigint primary key");
+		for (int i = 1; i <= columns; i++)
+			ddl.append(", c").append(i).append(" varchar(").append(value.length()).append(")");
+		ddl.append(")");
+		try (Statement st = conn.createStatement()) {
+			st.execute("drop table if exists " + table);
+			st.execute("drop table if exists j$" + table);
+			st.execute(ddl.toString());
+			st.execute("create table j$" + table + " (window_id bigint auto_increment primary key, id bigint not null)");
+		}
+	}
+
+	/**
+	 * Inserts rows into target and journal tables, as a trigger would do.
+	 */
+	private void insert(String table, long first, int count) throws SQLException {
+
+		StringBuilder sql = new StringBuilder("insert into ").append(table).append(" values (?");
+		for (int i = 0; i < columns; i++)
+			sql.append(", ?");
+		sql.append(")");
+
+		conn.setAutoCommit(false);
+		try (PreparedStatement data = conn.prepareStatement(sql.toString());
+				PreparedStatement journal = conn.prepareStatement("insert into j$" + table + " (id) values (?)")) {
+			for (int n = 0; n < count; n++) {
+				long id = first + n;
+				data.setLong(1, id);
+				for (int i = 2; i <= columns + 1; i++)
+					data.setString(i, value);
+				data.addBatch();
+				journal.setLong(1, id);
+				journal.addBatch();
+				if ((n + 1) % INSERT_BATCH == 0 || n == count - 1) {
+					data.executeBatch();
+					journal.executeBatch();
+				}
+			}
+			conn.commit();
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private File writeConfig(Class<? extends CountingHandler> handler) throws IOException {
+
+		File file = File.createTempFile("dbxtract-e2e", ".properties");
+		file.deleteOnExit();
+		try (Writer w = new FileWriter(file)) {
+			w.write("zookeeper=" + zookeeper.getConnectString() + "\n");
+			w.write("interval=" + Long.getLong("e2e.interval", 100L) + "\n");
+			w.write("thread.pool.size=" + Integer.getInteger("e2e.threads", 2) + "\n");
+			w.write("sources=bench\n");
+			w.write("source.bench.connection=" + URL + "\n");
+			w.write("source.bench.driver=org.h2.Driver\n");
+			w.write("source.bench.user=sa\n");
+			w.write("source.bench.password=\n");
+			w.write("source.bench.handlers=" + handler.getName() + "\n");
+		}
+		return file;
+	}
+
+	/**
+	 * Seeds the journal, starts the agent and waits until every produced row
+	 * was published.
+	 */
+	Result run(Class<? extends CountingHandler> handlerClass) throws Exception {
+
+		CountingHandler handler = handlerClass.newInstance();
+		String table = handler.getTable();
+		int rows = Integer.getInteger("e2e.rows", 100000);
+		int rate = Integer.getInteger("e2e.rate", 0);
+		long duration = Long.getLong("e2e.duration", 30L) * 1000L;
+		long timeout = Long.getLong("e2e.timeout", 300L) * 1000L;
+
+		createTables(table);
+		insert(table, 0L, rows);
+		AtomicLong produced = new AtomicLong(rows);
+
+		Result result = new Result();
+		result.strategy = handler.getStrategy();
+		HandlerMetrics metrics = Metrics.getInstance().getHandler(handlerClass.getName());
+		long before = CountingHandler.getPublished(handlerClass);
+
+		App app = new App(new Config(writeConfig(handlerClass).getAbsolutePath()));
+		long start = System.currentTimeMillis();
+		app.start();
+		try {
+			Thread producer = null;
+			if (rate > 0) {
+				producer = new Thread(() -> produce(table, produced, rate, start + duration), "e2e-producer");
+				producer.start();
+			}
+			while (System.currentTimeMillis() - start < timeout) {
+				long published = CountingHandler.getPublished(handlerClass) - before;
+				result.maxLagRows = Math.max(result.maxLagRows, produced.get() - published);
+				result.maxLagMillis = Math.max(result.maxLagMillis, metrics.getJournalLag());
+				if ((producer == null || !producer.isAlive()) && published >= produced.get()) {
+					result.drained = true;
+					break;
+				}
+				Thread.sleep(SAMPLE_INTERVAL);
+			}
+			result.elapsed = System.currentTimeMillis() - start;
+			if (producer != null)
+				producer.join();
+
+		} finally {
+			app.stop();
+		}
+		result.produced = produced.get();
+		result.published = CountingHandler.getPublished(handlerClass) - before;
+		result.cycles = metrics.getLatency(Stage.CYCLE);
+		if (result.strategy == JournalStrategy.DELETE) {
+			// window strategy never removes journal rows
+			try (Statement st = conn.createStatement();
+					ResultSet rs = st.executeQuery("select count(*) from j$" + table)) {
+				rs.next();
+				result.journalLeft = rs.getLong(1);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Inserts <code>rate</code> rows per second until <code>end</code>.
+	 */
+	private void produce(String table, AtomicLong produced, int rate, long end) {
+
+		int chunk = Math.max(1, rate / 10);
+		try {
+			long next = System.currentTimeMillis();
+			while (next < end) {
+				insert(table, produced.get(), chunk);
+				produced.addAndGet(chunk);
+				next += chunk * 1000L / rate;
+				long wait = next - System.currentTimeMillis();
+				if (wait > 0)
+					Thread.sleep(wait);
+			}
+		} catch (SQLException e) {
+			e.printStackTrace(System.out);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void report(Result r) {
+
+		System.out.printf("[E2E] %-6s rows=%d published=%d elapsed=%dms rows/sec=%.0f%n", r.strategy, r.produced,
+				r.published, r.elapsed, r.getRowsPerSecond());
+		System.out.printf("[E2E] %-6s cycles=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms%n", r.strategy,
+				r.cycles.getCount(), r.cycles.getPercentile(50) / 1000d, r.cycles.getPercentile(90) / 1000d,
+				r.cycles.getPercentile(99) / 1000d, r.cycles.getMax() / 1000d);
+		System.out.printf("[E2E] %-6s journal lag: max=%d rows, max=%dms, journal rows left=%d%s%n", r.strategy,
+				r.maxLagRows, r.maxLagMillis, r.journalLeft, r.drained ? "" : " (TIMEOUT)");
+	}
+
+	/**
+	 * Runs the harness for each strategy in <code>e2e.strategies</code>.
+	 * 
+	 * @param args
+	 *            not used
+	 */
+	public static void main(String[] args) {
+
+		int status = 0;
+		double minRate = Double.parseDouble(System.getProperty("e2e.min.rps", "0"));
+		List<Result> results = new ArrayList<>();
+
+		try (TestingServer zookeeper = new TestingServer(true);
+				Connection conn = DriverManager.getConnection(URL, "sa", "")) {
+
+			ThroughputHarness harness = new ThroughputHarness(zookeeper, conn);
+			for (String name : System.getProperty("e2e.strategies", "DELETE,WINDOW").split(",")) {
+				JournalStrategy strategy = JournalStrategy.valueOf(name.trim().toUpperCase());
+				Result result = harness
+						.run(strategy == JournalStrategy.DELETE ? CountingHandler.Delete.class : CountingHandler.Window.class);
+				report(result);
+				results.add(result);
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace(System.out);
+			status = 2;
+		}
+
+		for (Result r : results) {
+			if (!r.drained || r.getRowsPerSecond() < minRate) {
+				System.out.printf("[E2E] FAILED: %s captured %.0f rows/sec, %s%n", r.strategy, r.getRowsPerSecond(),
+						r.drained ? "minimum is " + minRate : "journal was not drained");
+				status = Math.max(status, 1);
+			}
+		}
+		System.exit(status);
+	}
+}
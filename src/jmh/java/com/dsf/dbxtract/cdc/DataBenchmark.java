@@ -0,0 +1,100 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dsf.utils.sql.InMemoryJdbc;
+
+/**
+ * Appending captured rows to {@link Data} and {@link ColumnarData}. Each
+ * invocation appends a batch of {@value #ROWS} rows (scores are rows per
+ * second).
+ * 
+ * @author fabio de santi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataBenchmark {
+
+	static final int ROWS = 1000;
+
+	private static final String[] COLUMNS = { "key1", "key2", "name", "amount" };
+	private static final int[] TYPES = { Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.DOUBLE };
+
+	private Object[][] rows;
+	private ResultSet rs;
+
+	@Setup
+	public void setUp() {
+		rows = new Object[ROWS][];
+		for (int i = 0; i < ROWS; i++) {
+			rows[i] = new Object[] { (long) i, (long) i % 7, "name-" + (i % 100), i * 1.5d };
+		}
+		rs = InMemoryJdbc.resultSet(COLUMNS, TYPES, rows);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public Data appendResultSet() throws SQLException {
+		((InMemoryJdbc.Rewindable) rs).rewind();
+		Data data = new Data(COLUMNS);
+		while (rs.next()) {
+			data.append(rs);
+		}
+		return data;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public Data appendColumnar() throws SQLException {
+		((InMemoryJdbc.Rewindable) rs).rewind();
+		Data data = new ColumnarData(COLUMNS, TYPES);
+		while (rs.next()) {
+			data.append(rs);
+		}
+		return data;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public Data appendArray() throws DataColumnMatchException {
+		Data data = new Data(COLUMNS);
+		for (Object[] row : rows) {
+			data.append(row);
+		}
+		return data;
+	}
+}
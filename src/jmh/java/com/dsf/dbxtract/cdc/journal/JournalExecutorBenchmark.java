@@ -0,0 +1,153 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc.journal;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dsf.dbxtract.cdc.Data;
+import com.dsf.dbxtract.cdc.Source;
+import com.dsf.utils.sql.InMemoryJdbc;
+import com.dsf.utils.sql.NamedParameterStatement;
+
+/**
+ * Journal reading ({@link JournalExecutor#copyResultsetToMap(ResultSet, List)})
+ * and lookup parameter binding ({@link JournalExecutor#fillParameters(List,
+ * String, NamedParameterStatement)}) over {@value #ROWS} journal rows per
+ * invocation (scores are journal rows per second). The zookeeper client is
+ * never started.
+ * 
+ * @author fabio de santi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalExecutorBenchmark {
+
+	static final int ROWS = 1000;
+
+	private static final String[] COLUMNS = { "window_id", "key1", "key2" };
+	private static final int[] TYPES = { Types.BIGINT, Types.BIGINT, Types.BIGINT };
+	private static final String QUERY = "select * from test where key1 = :key1 and key2 = :key2";
+
+	@Param({ "1", "50" })
+	public int chunkSize;
+
+	private CuratorFramework client;
+	private JournalExecutor executor;
+	private ResultSet rs;
+	private List<Map<String, Object>> keys;
+	private NamedParameterStatement ps;
+
+	@Setup
+	public void setUp() throws SQLException {
+
+		client = CuratorFrameworkFactory.newClient("localhost:2181", new RetryOneTime(1));
+		Source source = new Source("bench", "jdbc:none", "none", "user", "password", null);
+		executor = new JournalExecutor("bench", client, new BenchmarkHandler(), source);
+
+		Object[][] rows = new Object[ROWS][];
+		for (int i = 0; i < ROWS; i++) {
+			rows[i] = new Object[] { (long) i, (long) i, (long) i % 7 };
+		}
+		rs = InMemoryJdbc.resultSet(COLUMNS, TYPES, rows);
+		keys = copyResultsetToMap();
+
+		Connection conn = InMemoryJdbc.connection();
+		ps = new NamedParameterStatement(conn,
+				chunkSize == 1 ? QUERY : NamedParameterStatement.unionAll(QUERY, chunkSize));
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.close();
+		client.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public List<Map<String, Object>> copyResultsetToMap() throws SQLException {
+		((InMemoryJdbc.Rewindable) rs).rewind();
+		List<Map<String, Object>> result = new ArrayList<>(ROWS);
+		executor.copyResultsetToMap(rs, result);
+		return result;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public NamedParameterStatement fillParameters() throws SQLException {
+		for (int i = 0; i < ROWS; i += chunkSize) {
+			executor.fillParameters(keys.subList(i, Math.min(i + chunkSize, ROWS)), QUERY, ps);
+		}
+		return ps;
+	}
+
+	/**
+	 * Handler used only to build the executor.
+	 */
+	static class BenchmarkHandler implements JournalHandler {
+
+		@Override
+		public String getJournalTable() {
+			return "j$test";
+		}
+
+		@Override
+		public int getBatchSize() {
+			return ROWS;
+		}
+
+		@Override
+		public String getTargetQuery() {
+			return QUERY;
+		}
+
+		@Override
+		public void publish(Data data) {
+		}
+
+		@Override
+		public JournalStrategy getStrategy() {
+			return JournalStrategy.WINDOW;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc.mon;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dsf.dbxtract.cdc.mon.Statistics.StatEntry;
+
+/**
+ * {@link StatEntry} JSON serialization, done for each statistics update
+ * written to zookeeper.
+ * 
+ * @author fabio de santi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private StatEntry entry;
+	private byte[] json;
+
+	@Setup
+	public void setUp() throws IOException {
+		entry = new StatEntry("com.dsf.dbxtract.cdc.sample.TestHandler");
+		entry.increment(1000);
+		json = mapper.writeValueAsBytes(entry);
+	}
+
+	@Benchmark
+	public byte[] write() throws IOException {
+		return mapper.writeValueAsBytes(entry);
+	}
+
+	@Benchmark
+	public StatEntry read() throws IOException {
+		return mapper.readValue(json, StatEntry.class);
+	}
+
+	@Benchmark
+	public byte[] readUpdateWrite() throws IOException {
+		StatEntry e = mapper.readValue(json, StatEntry.class);
+		e.merge(1000L, System.currentTimeMillis(), System.currentTimeMillis());
+		return mapper.writeValueAsBytes(e);
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.utils.sql;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * In-memory JDBC objects for benchmarks, so only the code under test is
+ * measured (no driver or database).
+ * 
+ * @author fabio de santi
+ */
+public class InMemoryJdbc {
+
+	private InMemoryJdbc() {
+	}
+
+	/**
+	 * A forward-only result set over an array of rows. Only the methods used
+	 * by the capture path are implemented. Call {@link Rewindable#rewind()}
+	 * (cast the result set) before reading it again.
+	 * 
+	 * @param columns
+	 *            column labels
+	 * @param types
+	 *            column types (see {@link Types})
+	 * @param rows
+	 *            row values
+	 * @return a rewindable {@link ResultSet}
+	 */
+	public static ResultSet resultSet(String[] columns, int[] types, Object[][] rows) {
+
+		int[] cursor = { -1 };
+		boolean[] wasNull = { false };
+		ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(InMemoryJdbc.class.getClassLoader(),
+				new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getColumnCount":
+						return columns.length;
+					case "getColumnLabel":
+					case "getColumnName":
+						return columns[(Integer) args[0] - 1];
+					case "getColumnType":
+						return types[(Integer) args[0] - 1];
+					case "getColumnClassName":
+						return className(types[(Integer) args[0] - 1]);
+					default:
+						throw new SQLException("not supported: " + method.getName());
+					}
+				});
+
+		return (ResultSet) Proxy.newProxyInstance(InMemoryJdbc.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class, Rewindable.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "next":
+						return ++cursor[0] < rows.length;
+					case "rewind":
+						cursor[0] = -1;
+						return null;
+					case "getMetaData":
+						return metaData;
+					case "wasNull":
+						return wasNull[0];
+					case "close":
+						return null;
+					case "getObject":
+					case "getLong":
+					case "getDouble":
+					case "getString":
+						Object value = rows[cursor[0]][index(columns, args[0])];
+						wasNull[0] = value == null;
+						return convert(method.getName(), value);
+					default:
+						throw new SQLException("not supported: " + method.getName());
+					}
+				});
+	}
+
+	/**
+	 * A connection that prepares statements ignoring all parameters.
+	 * 
+	 * @return a {@link Connection}
+	 */
+	public static Connection connection() {
+
+		PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(InMemoryJdbc.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> null);
+		return (Connection) Proxy.newProxyInstance(InMemoryJdbc.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+					if ("prepareStatement".equals(method.getName()))
+						return ps;
+					throw new SQLException("not supported: " + method.getName());
+				});
+	}
+
+	private static int index(String[] columns, Object column) throws SQLException {
+
+		if (column instanceof Integer)
+			return (Integer) column - 1;
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equalsIgnoreCase((String) column))
+				return i;
+		}
+		throw new SQLException("column not found: " + column);
+	}
+
+	private static Object convert(String getter, Object value) {
+
+		switch (getter) {
+		case "getLong":
+			return value == null ? 0L : ((Number) value).longValue();
+		case "getDouble":
+			return value == null ? 0d : ((Number) value).doubleValue();
+		case "getString":
+			return value == null ? null : value.toString();
+		default:
+			return value;
+		}
+	}
+
+	private static String className(int type) {
+
+		switch (type) {
+		case Types.BIGINT:
+			return Long.class.getName();
+		case Types.INTEGER:
+			return Integer.class.getName();
+		case Types.DOUBLE:
+			return Double.class.getName();
+		case Types.VARCHAR:
+			return String.class.getName();
+		default:
+			return Object.class.getName();
+		}
+	}
+
+	/**
+	 * A result set that can be read again.
+	 */
+	public interface Rewindable {
+		void rewind();
+	}
+}
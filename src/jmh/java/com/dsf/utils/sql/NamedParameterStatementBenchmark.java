@@ -0,0 +1,70 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.utils.sql;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Named parameter query parsing, done for each prepared lookup statement.
+ * 
+ * @author fabio de santi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamedParameterStatementBenchmark {
+
+	private static final String QUERY = "select * from test where key1 = :key1 and key2 = :key2 and name <> ':x'";
+
+	@Param({ "1", "50" })
+	public int copies;
+
+	private String query;
+
+	@Setup
+	public void setUp() {
+		query = copies == 1 ? QUERY : NamedParameterStatement.unionAll(QUERY, copies);
+	}
+
+	@Benchmark
+	public String parse() {
+		Map<String, List<Integer>> params = new HashMap<>();
+		return NamedParameterStatement.parse(query, params);
+	}
+
+	@Benchmark
+	public String unionAll() {
+		return NamedParameterStatement.unionAll(QUERY, copies);
+	}
+}
@@ -0,0 +1,587 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.dsf.dbxtract.cdc.journal.CaptureResult;
+import com.dsf.dbxtract.cdc.journal.JournalExecutor;
+import com.dsf.dbxtract.cdc.journal.JournalHandler;
+import com.dsf.dbxtract.cdc.mon.HandlerMetrics;
+import com.dsf.dbxtract.cdc.mon.Metrics;
+import com.dsf.dbxtract.cdc.mon.Stage;
+
+/**
+ * Schedules capture cycles of {@link JournalExecutor} objects. Each executor
+ * schedules its own next cycle according to the result of the previous one:
+ * <ul>
+ * <li>a full batch is followed by an immediate cycle, so journal backlogs are
+ * drained without waiting for the interval</li>
+ * <li>an empty journal (or a failure) doubles the executor's interval, up to
+ * the maximum interval, reducing idle load on data sources</li>
+ * <li>a journal locked by another agent is tried again as soon as its lock
+ * is released, or after the interval, so threads never wait for locks</li>
+ * <li>any other result resets the executor's interval</li>
+ * </ul>
+ * A handler's target latency (see {@link JournalHandler#getTargetLatency()})
+ * caps both intervals to half the target.
+ * <p>
+ * Each data source has its own execution lane (see
+ * {@link Source#getMaxConcurrency()}), so a slow or hung database never
+ * holds the threads of other sources. Due cycles wait in the lane's
+ * {@link WeightedFairQueue} for a free thread: under contention, handlers get
+ * thread time in proportion to their priority (see
+ * {@link JournalHandler#getPriority()}), each cycle costing as much as the
+ * handler's last cycle lasted. A single platform thread triggers delayed
+ * cycles. Cycles run on:
+ * </p>
+ * <ul>
+ * <li>{@link ExecutionMode#PLATFORM}: a pool of platform threads per data
+ * source</li>
+ * <li>{@link ExecutionMode#VIRTUAL}: a virtual thread per cycle (Java 21 or
+ * later)</li>
+ * </ul>
+ * 
+ * @author fabio de santi
+ */
+public class AdaptiveScheduler {
+
+	private static final Logger logger = LogManager.getLogger(AdaptiveScheduler.class.getName());
+
+	/**
+	 * How capture cycles are executed.
+	 */
+	public enum ExecutionMode {
+		/** pools of platform threads */
+		PLATFORM,
+		/** virtual threads, requires Java 21 or later */
+		VIRTUAL
+	}
+
+	private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+	private final Map<JournalExecutor, Cycle> cycles = new ConcurrentHashMap<>();
+	private final int poolSize;
+	private final long interval;
+	private final long maxInterval;
+	private final ExecutionMode mode;
+	private final ScheduledThreadPoolExecutor timer;
+	private ExecutorService virtualThreads = null;
+	private volatile boolean shutdown = false;
+
+	/**
+	 * 
+	 * @param poolSize
+	 *            maximum concurrent capture cycles of a data source without
+	 *            its own limit
+	 * @param interval
+	 *            milliseconds between capture cycles
+	 * @param maxInterval
+	 *            maximum milliseconds between capture cycles of an idle
+	 *            executor
+	 */
+	public AdaptiveScheduler(int poolSize, long interval, long maxInterval) {
+		this(poolSize, interval, maxInterval, ExecutionMode.PLATFORM);
+	}
+
+	/**
+	 * 
+	 * @param poolSize
+	 *            maximum concurrent capture cycles of a data source without
+	 *            its own limit ({@link ExecutionMode#PLATFORM} mode)
+	 * @param interval
+	 *            milliseconds between capture cycles
+	 * @param maxInterval
+	 *            maximum milliseconds between capture cycles of an idle
+	 *            executor
+	 * @param mode
+	 *            execution mode. When virtual threads aren't supported by the
+	 *            runtime, {@link ExecutionMode#PLATFORM} is used.
+	 */
+	public AdaptiveScheduler(int poolSize, long interval, long maxInterval, ExecutionMode mode) {
+		this.poolSize = Math.max(1, poolSize);
+		this.interval = interval;
+		this.maxInterval = Math.max(interval, maxInterval);
+		if (ExecutionMode.VIRTUAL.equals(mode)) {
+			virtualThreads = newVirtualThreadExecutor();
+			if (virtualThreads == null) {
+				logger.warn("virtual threads require Java 21 or later, using platform threads");
+				mode = ExecutionMode.PLATFORM;
+			}
+		}
+		this.mode = mode;
+		this.timer = new ScheduledThreadPoolExecutor(1, newThreadFactory("dbxtract-timer"));
+		// pending cycles are dropped at shutdown
+		timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		// cycles brought forward by a released lock leave no cancelled task
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Creates an executor starting a virtual thread per task. The runtime's
+	 * API is reached by reflection, so the agent still builds and runs on
+	 * Java 8.
+	 * 
+	 * @return a virtual thread executor, or null if not supported
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "dbxtract-virtual-",
+					1L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			if (logger.isDebugEnabled())
+				logger.debug("virtual threads are not available", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the execution mode in use
+	 */
+	public ExecutionMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Starts executor's capture cycles.
+	 * 
+	 * @param executor
+	 *            {@link JournalExecutor} to be scheduled
+	 */
+	public void schedule(JournalExecutor executor) {
+		Lane lane = getLane(executor.getSource());
+		Cycle cycle = new Cycle(executor, lane);
+		cycles.put(executor, cycle);
+		lane.submit(cycle);
+	}
+
+	/**
+	 * Stops executor's capture cycles, waiting for a running cycle.
+	 * 
+	 * @param executor
+	 *            {@link JournalExecutor} to be stopped
+	 * @param timeout
+	 *            maximum time to wait
+	 * @param unit
+	 *            time unit of the timeout
+	 * @return true if no cycle of the executor is running
+	 * @throws InterruptedException
+	 *             interrupted while waiting
+	 */
+	public boolean unschedule(JournalExecutor executor, long timeout, TimeUnit unit) throws InterruptedException {
+
+		Cycle cycle = cycles.remove(executor);
+		return cycle == null || cycle.cancel().await(timeout, unit);
+	}
+
+	/**
+	 * Applies a data source's new concurrency to its lane.
+	 * 
+	 * @param source
+	 *            data source, with new settings
+	 */
+	public void resize(Source source) {
+
+		Lane lane = lanes.get(source.getName());
+		if (lane != null && lane.getConcurrency() != getConcurrency(source)) {
+			lane.setConcurrency(getConcurrency(source));
+			logger.info("source " + source.getName() + " runs up to " + lane.getConcurrency()
+					+ " concurrent capture cycles");
+		}
+	}
+
+	private int getConcurrency(Source source) {
+
+		if (source.getMaxConcurrency() > 0)
+			return source.getMaxConcurrency();
+		// connections are the only resource held by a virtual cycle
+		return ExecutionMode.VIRTUAL.equals(mode) ? source.getPoolMaxTotal() : poolSize;
+	}
+
+	/**
+	 * 
+	 * @param source
+	 *            data source
+	 * @return the lane running capture cycles of the source's handlers
+	 */
+	Lane getLane(Source source) {
+		return lanes.computeIfAbsent(source.getName(), name -> {
+			if (shutdown)
+				throw new RejectedExecutionException("scheduler is shut down");
+			int size = getConcurrency(source);
+			Lane lane;
+			if (ExecutionMode.VIRTUAL.equals(mode))
+				lane = new Lane(size, virtualThreads, false);
+			else
+				lane = new Lane(size, Executors.newFixedThreadPool(size, newThreadFactory("dbxtract-" + name)), true);
+			if (logger.isDebugEnabled())
+				logger.debug("source " + name + " runs up to " + lane.getConcurrency() + " concurrent capture cycles on "
+						+ mode.name().toLowerCase() + " threads");
+			return lane;
+		});
+	}
+
+	private static ThreadFactory newThreadFactory(String name) {
+
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, name + "-" + count.incrementAndGet());
+			}
+		};
+	}
+
+	/**
+	 * Computes the delay before an executor's next cycle.
+	 * 
+	 * @param result
+	 *            result of the last cycle
+	 * @param delay
+	 *            delay used before the last cycle
+	 * @param interval
+	 *            milliseconds between capture cycles
+	 * @param maxInterval
+	 *            maximum milliseconds between capture cycles
+	 * @return milliseconds to wait before the next cycle
+	 */
+	static long nextDelay(CaptureResult result, long delay, long interval, long maxInterval) {
+
+		switch (result) {
+		case FULL:
+			return 0L;
+		case EMPTY:
+		case FAILED:
+			return Math.min(maxInterval, Math.max(interval, delay * 2));
+		default:
+			return interval;
+		}
+	}
+
+	/**
+	 * Caps an interval to a handler's target latency. A change may wait for a
+	 * whole interval and two cycles before being published, so intervals are
+	 * kept below half the target.
+	 * 
+	 * @param interval
+	 *            milliseconds between capture cycles
+	 * @param targetLatency
+	 *            handler's target latency in milliseconds, or 0
+	 * @return the interval to be used for the handler
+	 */
+	static long capInterval(long interval, long targetLatency) {
+		return targetLatency > 0 ? Math.min(interval, targetLatency / 2) : interval;
+	}
+
+	/**
+	 * Stops scheduling new cycles and waits for running cycles.
+	 * 
+	 * @param timeout
+	 *            maximum time to wait
+	 * @param unit
+	 *            time unit of the timeout
+	 * @throws InterruptedException
+	 *             interrupted while waiting
+	 */
+	public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		shutdown = true;
+		timer.shutdown();
+		for (Lane lane : lanes.values()) {
+			lane.shutdown();
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Lane lane : lanes.values()) {
+			lane.awaitTermination(Math.max(0L, deadline - System.nanoTime()));
+		}
+		if (virtualThreads != null) {
+			virtualThreads.shutdown();
+			virtualThreads.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Runs the capture cycles of a data source, at most
+	 * {@link #getConcurrency()} at once. Due cycles wait in a weighted fair
+	 * queue for a free slot.
+	 */
+	class Lane {
+
+		private int concurrency;
+		private final ExecutorService workers;
+		private final boolean owned;
+		private final WeightedFairQueue<Cycle> ready = new WeightedFairQueue<>();
+		private int running = 0;
+
+		/**
+		 * 
+		 * @param concurrency
+		 *            maximum concurrent capture cycles
+		 * @param workers
+		 *            executor running the cycles
+		 * @param owned
+		 *            true if workers are shut down with the lane
+		 */
+		Lane(int concurrency, ExecutorService workers, boolean owned) {
+			this.concurrency = Math.max(1, concurrency);
+			this.workers = workers;
+			this.owned = owned;
+		}
+
+		/**
+		 * 
+		 * @return maximum concurrent capture cycles
+		 */
+		synchronized int getConcurrency() {
+			return concurrency;
+		}
+
+		/**
+		 * Changes the maximum concurrent capture cycles. Running cycles above
+		 * a reduced limit are allowed to finish.
+		 * 
+		 * @param size
+		 *            maximum concurrent capture cycles
+		 */
+		synchronized void setConcurrency(int size) {
+
+			concurrency = Math.max(1, size);
+			if (workers instanceof ThreadPoolExecutor) {
+				ThreadPoolExecutor pool = (ThreadPoolExecutor) workers;
+				if (concurrency > pool.getMaximumPoolSize()) {
+					pool.setMaximumPoolSize(concurrency);
+					pool.setCorePoolSize(concurrency);
+				} else {
+					pool.setCorePoolSize(concurrency);
+					pool.setMaximumPoolSize(concurrency);
+				}
+			}
+			dispatch();
+		}
+
+		/**
+		 * Queues a due cycle.
+		 * 
+		 * @param cycle
+		 *            capture cycle
+		 */
+		synchronized void submit(Cycle cycle) {
+
+			if (shutdown)
+				return;
+			cycle.due = System.nanoTime();
+			ready.add(cycle, cycle.flow, cycle.cost);
+			dispatch();
+		}
+
+		private void dispatch() {
+
+			while (running < concurrency && !ready.isEmpty()) {
+				Cycle cycle = ready.poll();
+				running++;
+				try {
+					workers.execute(() -> {
+						try {
+							cycle.run();
+						} finally {
+							done();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// scheduler is shutting down
+					running--;
+					ready.clear();
+				}
+			}
+		}
+
+		private synchronized void done() {
+			running--;
+			dispatch();
+		}
+
+		boolean isShutdown() {
+			return shutdown;
+		}
+
+		void shutdown() {
+			synchronized (this) {
+				ready.clear();
+			}
+			if (owned)
+				workers.shutdown();
+		}
+
+		void awaitTermination(long nanos) throws InterruptedException {
+			// virtual threads are shared by all lanes
+			if (owned)
+				workers.awaitTermination(nanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * A capture cycle that reschedules itself.
+	 */
+	private class Cycle implements Runnable {
+
+		private final JournalExecutor executor;
+		private final Lane lane;
+		private final HandlerMetrics metrics;
+		private final long baseInterval;
+		private final long maxDelay;
+		// fair queue flow, only used while holding the lane's monitor
+		private final WeightedFairQueue.Flow flow;
+		// written by the worker running the cycle, read by the lane when the
+		// next cycle is queued (cost charged to the flow) and the other way
+		// around (queueing time)
+		private volatile long cost = 1L;
+		private volatile long due = 0L;
+		private long delay = 0L;
+		private long lastCapture = 0L;
+		private CaptureResult last = null;
+		private ScheduledFuture<?> next = null;
+		private boolean running = false;
+		private boolean cancelled = false;
+		private final CountDownLatch stopped = new CountDownLatch(1);
+
+		Cycle(JournalExecutor executor, Lane lane) {
+			this.executor = executor;
+			this.lane = lane;
+			JournalHandler handler = executor.getHandler();
+			this.flow = new WeightedFairQueue.Flow(handler.getPriority());
+			this.baseInterval = capInterval(interval, handler.getTargetLatency());
+			this.maxDelay = Math.max(baseInterval, capInterval(maxInterval, handler.getTargetLatency()));
+			this.metrics = Metrics.getInstance().getHandler(handler.getClass().getName());
+			metrics.setScheduling(flow.getWeight(), handler.getTargetLatency());
+			executor.setLockListener(this::wake);
+		}
+
+		/**
+		 * Brings the next cycle forward when the lock found held by the last
+		 * cycle may have been released.
+		 */
+		synchronized void wake() {
+
+			if (last == CaptureResult.LOCKED && next != null && next.cancel(false)) {
+				next = null;
+				lane.submit(this);
+			}
+		}
+
+		/**
+		 * Stops rescheduling the executor.
+		 * 
+		 * @return a latch released when no cycle is running
+		 */
+		synchronized CountDownLatch cancel() {
+
+			cancelled = true;
+			executor.setLockListener(null);
+			if (next != null) {
+				next.cancel(false);
+				next = null;
+			}
+			if (!running)
+				stopped.countDown();
+			return stopped;
+		}
+
+		@Override
+		public void run() {
+
+			synchronized (this) {
+				if (cancelled)
+					return;
+				running = true;
+			}
+			long start = System.nanoTime();
+			long queued = start - due;
+			CaptureResult result;
+			try {
+				result = executor.execute();
+			} catch (RuntimeException e) {
+				logger.error("unexpected capture failure", e);
+				result = CaptureResult.FAILED;
+			}
+			cost = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			account(result, queued, start);
+
+			delay = nextDelay(result, delay, baseInterval, maxDelay);
+			if (logger.isTraceEnabled())
+				logger.trace(executor.getHandler() + " :: " + result + ", next cycle in " + delay + "ms");
+			synchronized (this) {
+				last = result;
+				running = false;
+				if (cancelled) {
+					stopped.countDown();
+					return;
+				}
+				try {
+					if (!shutdown)
+						next = timer.schedule(() -> lane.submit(this), delay, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException e) {
+					// scheduler is shutting down
+				}
+			}
+		}
+
+		/**
+		 * Records the time the cycle waited for a thread and the achieved
+		 * capture latency: a change made just after a cycle has started is
+		 * published, at the latest, by the end of the next cycle.
+		 */
+		private void account(CaptureResult result, long queued, long start) {
+
+			switch (result) {
+			case SKIPPED:
+			case LOCKED:
+				// journal is captured by another agent
+				lastCapture = 0L;
+				break;
+			case FAILED:
+				metrics.getLatency(Stage.QUEUE).record(queued / 1000L);
+				break;
+			default:
+				metrics.getLatency(Stage.QUEUE).record(queued / 1000L);
+				if (lastCapture != 0L)
+					metrics.getCaptureLatency().recordSince(lastCapture);
+				lastCapture = start;
+			}
+		}
+	}
+}
@@ -17,8 +17,12 @@ package com.dsf.dbxtract.cdc;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
@@ -29,10 +33,18 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import com.dsf.dbxtract.cdc.journal.JournalExecutor;
 import com.dsf.dbxtract.cdc.journal.JournalHandler;
 import com.dsf.dbxtract.cdc.mon.Monitor;
+import com.dsf.dbxtract.cdc.mon.Statistics;
 
 /**
  * Main application
@@ -42,6 +54,8 @@ import com.dsf.dbxtract.cdc.mon.Monitor;
  */
 public class App {
 
+	private static final Logger logger = LogManager.getLogger(App.class.getName());
+
 	private static final String PARAM_CONFIG = "config";
 
 	private static final String COMMAND_LIST = "list";
@@ -50,7 +64,12 @@ public class App {
 	public static final String BASEPREFIX = "/dbxtract/cdc";
 
 	private Config config = null;
-	private ScheduledExecutorService scheduledService = null;
+	private AdaptiveScheduler scheduler = null;
+	private CuratorFramework client = null;
+	private ClusterAssignment assignment = null;
+	private ConfigWatcher watcher = null;
+	private final Config.Listener listener = this::apply;
+	private List<JournalExecutor> executors = new ArrayList<>();
 
 	/**
 	 * Constructor
@@ -77,31 +96,183 @@ public class App {
 	 * @throws ConfigurationException
 	 *             any configuration error
 	 */
-	public void start() throws ConfigurationException {
+	public synchronized void start() throws ConfigurationException {
 
 		// Get ZooKeeper's connection string
 		String zkConnection = config.getZooKeeper();
 
 		// Get interval (in milliseconds) between executions
 		long interval = config.getDataSources().getInterval();
+		long maxInterval = config.getDataSources().getMaxInterval();
+
+		// A single long-lived ZooKeeper session is shared by all executors
+		client = startZooKeeperClient(zkConnection);
+
+		// Handler's statistics are kept in memory and flushed periodically
+		Statistics.getInstance().start(client, config.getStatisticsFlushInterval());
+
+		// Open and validate the connection pool of each data source in use
+		Set<Source> sources = new LinkedHashSet<>();
+		for (JournalHandler handler : config.getHandlers()) {
+			sources.add(config.getSourceByHandler(handler));
+		}
+		for (Source source : sources) {
+			ConnectionPools.getInstance().prewarm(source);
+		}
 
-		scheduledService = Executors.newScheduledThreadPool(config.getThreadPoolSize());
+		scheduler = new AdaptiveScheduler(config.getThreadPoolSize(), interval, maxInterval,
+				config.getExecutionMode());
 
-		// Prepare the task's list. Each handler becomes a task.
+		// Prepare the task's list. Each handler's partition becomes a task.
 		for (JournalHandler handler : config.getHandlers()) {
+			executors.addAll(createExecutors(handler, config.getSourceByHandler(handler)));
+		}
+
+		// Tasks are captured only by the agent they were assigned to
+		if (config.isClusterAssignment()) {
+			assignment = new ClusterAssignment(client, config.getAgentName(), executors);
+			assignment.start();
+		}
+
+		for (JournalExecutor executor : executors) {
+			scheduler.schedule(executor);
+		}
+
+		// Configuration changes are applied while the agent runs
+		config.addListener(listener);
+		if (config.isConfigWatch()) {
+			watcher = new ConfigWatcher(config);
+			watcher.start();
+		}
+	}
+
+	private List<JournalExecutor> createExecutors(JournalHandler handler, Source source) {
+
+		List<JournalExecutor> list = new ArrayList<>();
+		for (int partition = 0; partition < Math.max(1, handler.getPartitions()); partition++) {
+			list.add(new JournalExecutor(config.getAgentName(), client, handler, source, partition));
+		}
+		return list;
+	}
 
-			Runnable executor = new JournalExecutor(config.getAgentName(), zkConnection, handler,
-					config.getSourceByHandler(handler));
-			scheduledService.scheduleAtFixedRate(executor, 0L, interval, TimeUnit.MILLISECONDS);
+	/**
+	 * Applies a configuration change to the running agent: executors of
+	 * removed handlers are stopped (after their running cycle), pools and
+	 * lanes of resized sources are changed in place and executors of added
+	 * handlers are started. Other executors aren't interrupted.
+	 * 
+	 * @param change
+	 *            configuration change
+	 */
+	synchronized void apply(ConfigChange change) {
+
+		if (scheduler == null)
+			return;
+
+		List<JournalExecutor> removed = new ArrayList<>();
+		Iterator<JournalExecutor> it = executors.iterator();
+		while (it.hasNext()) {
+			JournalExecutor executor = it.next();
+			if (change.getRemovedHandlers().containsKey(executor.getHandler())) {
+				try {
+					if (!scheduler.unschedule(executor, 30, TimeUnit.SECONDS))
+						logger.warn(executor.getTaskId() + " :: running cycle has not finished, closing anyway");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				executor.close();
+				removed.add(executor);
+				it.remove();
+			}
+		}
+		for (Source source : change.getRemovedSources()) {
+			ConnectionPools.getInstance().close(source);
+		}
+		for (Source source : change.getResizedSources()) {
+			ConnectionPools.getInstance().resize(source);
+			scheduler.resize(source);
 		}
+
+		List<JournalExecutor> added = new ArrayList<>();
+		Set<Source> sources = new LinkedHashSet<>();
+		for (Map.Entry<JournalHandler, Source> e : change.getAddedHandlers().entrySet()) {
+			added.addAll(createExecutors(e.getKey(), e.getValue()));
+			sources.add(e.getValue());
+		}
+		for (Source source : sources) {
+			ConnectionPools.getInstance().prewarm(source);
+		}
+		if (assignment != null)
+			assignment.update(added, removed);
+		for (JournalExecutor executor : added) {
+			scheduler.schedule(executor);
+		}
+		executors.addAll(added);
+
+		if (!removed.isEmpty() || !added.isEmpty())
+			logger.info(config.getAgentName() + " :: " + removed.size() + " tasks stopped, " + added.size()
+					+ " tasks started");
+		if (!change.getRestartProperties().isEmpty())
+			logger.warn(config.getAgentName() + " :: changes to " + change.getRestartProperties()
+					+ " are applied after restart");
 	}
 
 	/**
-	 * Stops all scanning services.
+	 * Creates and starts the agent's ZooKeeper client. Connection state
+	 * changes are logged; executors skip their cycles while the client is not
+	 * connected and Curator re-establishes the session in background.
+	 * 
+	 * @param zkConnection
+	 *            ZooKeeper connection string
+	 * @return a started {@link CuratorFramework} client
 	 */
-	public void stop() {
-		if (scheduledService != null)
-			scheduledService.shutdown();
+	private CuratorFramework startZooKeeperClient(String zkConnection) {
+
+		RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
+		CuratorFramework zk = CuratorFrameworkFactory.newClient(zkConnection, retryPolicy);
+		zk.getConnectionStateListenable().addListener((c, newState) -> {
+			if (newState == ConnectionState.LOST || newState == ConnectionState.SUSPENDED)
+				logger.warn(config.getAgentName() + " :: zookeeper connection " + newState);
+			else
+				logger.info(config.getAgentName() + " :: zookeeper connection " + newState);
+		});
+		zk.start();
+		return zk;
+	}
+
+	/**
+	 * Stops all scanning services and the monitor.
+	 */
+	public synchronized void stop() {
+		config.removeListener(listener);
+		if (watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+		if (scheduler != null) {
+			try {
+				// let running cycles finish before closing shared resources
+				scheduler.shutdown(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			scheduler = null;
+		}
+		if (assignment != null) {
+			assignment.close();
+			assignment = null;
+		}
+		for (JournalExecutor executor : executors) {
+			executor.close();
+		}
+		executors.clear();
+		ConnectionPools.getInstance().close();
+		Statistics.getInstance().stop();
+		Monitor.stop();
+		if (client != null) {
+			client.close();
+			client = null;
+		}
 	}
 
 	/**
@@ -156,6 +327,7 @@ public class App {
 
 			// Starts service
 			App app = new App(config);
+			Runtime.getRuntime().addShutdownHook(new Thread(app::stop, "dbxtract-shutdown"));
 			app.start();
 
 		} else {
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface that represents an asynchronous way to publish retrieved data,
+ * for destinations with high latency per call.
+ * 
+ * @author fabio de santi
+ *
+ */
+@FunctionalInterface
+public interface AsyncPublisher {
+
+	/**
+	 * Starts publishing retrieved data and returns immediately.
+	 * 
+	 * @param data
+	 *            {@link Data} object with retrieved data to be published
+	 * @return a future completed when data was published, or completed
+	 *         exceptionally when it couldn't be published
+	 */
+	public CompletableFuture<Void> publishAsync(Data data);
+}
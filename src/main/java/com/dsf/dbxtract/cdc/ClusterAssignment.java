@@ -0,0 +1,368 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dsf.dbxtract.cdc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.data.Stat;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+import com.dsf.dbxtract.cdc.journal.JournalExecutor;
+
+/**
+ * <p>
+ * Distributes capture tasks (handler partitions, see
+ * {@link JournalExecutor#getTaskId()}) among live agents, so each journal is
+ * captured by a single agent instead of all agents racing for its lock every
+ * cycle:
+ * </p>
+ * <ul>
+ * <li>each agent registers an ephemeral member node listing the tasks it's
+ * able to run (its affinity set)</li>
+ * <li>a leader, elected among members, writes which tasks each member runs
+ * and rebalances them whenever membership changes</li>
+ * <li>each agent enables only its assigned executors; the others skip their
+ * cycles without touching the lock</li>
+ * </ul>
+ * <p>
+ * Journal locks are still acquired by assigned executors, so a task moved
+ * between agents is never captured concurrently.
+ * </p>
+ * 
+ * @author fabio de santi
+ */
+public class ClusterAssignment {
+
+	private static final Logger logger = LogManager.getLogger(ClusterAssignment.class.getName());
+
+	private static final String PATH = App.BASEPREFIX + "/cluster";
+	private static final String MEMBERS = PATH + "/members";
+	private static final String LEADER = PATH + "/leader";
+	private static final String ASSIGNMENT = PATH + "/assignment";
+
+	private static final TypeReference<Map<String, List<String>>> ASSIGNMENT_TYPE = //
+			new TypeReference<Map<String, List<String>>>() {
+			};
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final CuratorFramework client;
+	private final String memberId;
+	private final Map<String, JournalExecutor> executors = new ConcurrentSkipListMap<>();
+	private ExecutorService rebalancer;
+	private PersistentNode member;
+	private PathChildrenCache members;
+	private NodeCache assignment;
+	private LeaderLatch leader;
+
+	/**
+	 * 
+	 * @param client
+	 *            started zookeeper client
+	 * @param agentName
+	 *            agent's name, used as prefix of its member id
+	 * @param executors
+	 *            agent's executors
+	 */
+	public ClusterAssignment(CuratorFramework client, String agentName, Collection<JournalExecutor> executors) {
+		this.client = client;
+		this.memberId = agentName + "-" + UUID.randomUUID().toString().substring(0, 8);
+		for (JournalExecutor executor : executors) {
+			this.executors.put(executor.getTaskId(), executor);
+		}
+	}
+
+	/**
+	 * 
+	 * @return agent's member id
+	 */
+	public String getMemberId() {
+		return memberId;
+	}
+
+	/**
+	 * Joins the cluster. Executors are disabled until tasks are assigned to
+	 * this agent.
+	 * 
+	 * @throws ConfigurationException
+	 *             failed to join the cluster
+	 */
+	public synchronized void start() throws ConfigurationException {
+
+		for (JournalExecutor executor : executors.values()) {
+			executor.setEnabled(false);
+		}
+		rebalancer = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "dbxtract-cluster");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			assignment = new NodeCache(client, ASSIGNMENT);
+			assignment.getListenable().addListener(this::apply, rebalancer);
+			assignment.start(true);
+			apply();
+
+			members = new PathChildrenCache(client, MEMBERS, true);
+			members.getListenable().addListener((c, event) -> requestRebalance(), rebalancer);
+			members.start();
+
+			member = new PersistentNode(client, CreateMode.EPHEMERAL, false, MEMBERS + "/" + memberId,
+					mapper.writeValueAsBytes(executors.keySet()));
+			member.start();
+
+			leader = new LeaderLatch(client, LEADER, memberId);
+			leader.addListener(new LeaderLatchListener() {
+				@Override
+				public void isLeader() {
+					logger.info(memberId + " :: elected cluster leader");
+					requestRebalance();
+				}
+
+				@Override
+				public void notLeader() {
+					logger.info(memberId + " :: no longer cluster leader");
+				}
+			}, rebalancer);
+			leader.start();
+
+		} catch (Exception e) {
+			throw new ConfigurationException("Failed to join cluster at " + PATH, e);
+		}
+		logger.info(memberId + " :: joined cluster with " + executors.size() + " tasks");
+	}
+
+	/**
+	 * Changes the tasks this agent is able to run, after a configuration
+	 * change. Added executors are disabled until they're assigned to this
+	 * agent; the leader rebalances tasks as soon as the member node is
+	 * updated.
+	 * 
+	 * @param added
+	 *            new executors
+	 * @param removed
+	 *            executors no longer run by this agent
+	 */
+	public synchronized void update(Collection<JournalExecutor> added, Collection<JournalExecutor> removed) {
+
+		for (JournalExecutor executor : removed) {
+			executors.remove(executor.getTaskId());
+		}
+		for (JournalExecutor executor : added) {
+			executor.setEnabled(false);
+			executors.put(executor.getTaskId(), executor);
+		}
+		if (member == null)
+			return;
+		try {
+			member.setData(mapper.writeValueAsBytes(executors.keySet()));
+			// tasks of the current assignment may have been added
+			rebalancer.execute(this::apply);
+
+		} catch (Exception e) {
+			logger.error(memberId + " :: failed to update tasks", e);
+		}
+	}
+
+	/**
+	 * Leaves the cluster: the leader reassigns this agent's tasks.
+	 */
+	public synchronized void close() {
+
+		close(leader);
+		close(member);
+		close(members);
+		close(assignment);
+		leader = null;
+		member = null;
+		members = null;
+		assignment = null;
+		if (rebalancer != null) {
+			rebalancer.shutdown();
+			rebalancer = null;
+		}
+	}
+
+	private void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException | IllegalStateException e) {
+				logger.warn(memberId + " :: failed to close " + c, e);
+			}
+		}
+	}
+
+	private void requestRebalance() {
+		LeaderLatch latch = leader;
+		if (latch != null && latch.hasLeadership())
+			rebalance();
+	}
+
+	/**
+	 * Assigns tasks of live members. Only the leader calls it, always from
+	 * the rebalancer thread.
+	 */
+	private void rebalance() {
+
+		try {
+			Map<String, Set<String>> capable = new TreeMap<>();
+			for (ChildData child : members.getCurrentData()) {
+				capable.put(ZKPaths.getNodeFromPath(child.getPath()),
+						new TreeSet<>(Arrays.asList(mapper.readValue(child.getData(), String[].class))));
+			}
+			if (capable.isEmpty())
+				return;
+
+			Stat stat = new Stat();
+			Map<String, List<String>> previous;
+			try {
+				previous = mapper.readValue(client.getData().storingStatIn(stat).forPath(ASSIGNMENT), ASSIGNMENT_TYPE);
+			} catch (NoNodeException nne) {
+				previous = null;
+			}
+
+			Map<String, List<String>> next = assign(capable,
+					previous == null ? Collections.<String, List<String>> emptyMap() : previous);
+			if (next.equals(previous))
+				return;
+
+			byte[] b = mapper.writeValueAsBytes(next);
+			if (previous == null)
+				client.create().creatingParentsIfNeeded().forPath(ASSIGNMENT, b);
+			else
+				client.setData().withVersion(stat.getVersion()).forPath(ASSIGNMENT, b);
+			logger.info(memberId + " :: tasks assigned to " + capable.size() + " members: " + next);
+
+		} catch (Exception e) {
+			logger.error(memberId + " :: failed to rebalance tasks", e);
+		}
+	}
+
+	/**
+	 * Enables the executors assigned to this agent and disables the others.
+	 */
+	private void apply() {
+
+		Set<String> assigned = new TreeSet<>();
+		ChildData data = assignment.getCurrentData();
+		if (data != null && data.getData() != null) {
+			try {
+				Map<String, List<String>> map = mapper.readValue(data.getData(), ASSIGNMENT_TYPE);
+				List<String> tasks = map.get(memberId);
+				if (tasks != null)
+					assigned.addAll(tasks);
+
+			} catch (IOException e) {
+				logger.error(memberId + " :: invalid assignment at " + ASSIGNMENT, e);
+				return;
+			}
+		}
+		for (Map.Entry<String, JournalExecutor> e : executors.entrySet()) {
+			boolean enabled = assigned.contains(e.getKey());
+			if (enabled != e.getValue().isEnabled()) {
+				logger.info(memberId + " :: " + e.getKey() + (enabled ? " assigned" : " unassigned"));
+				e.getValue().setEnabled(enabled);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Computes a balanced assignment of tasks to members. A task stays with
+	 * its previous member while that member is alive and doesn't exceed its
+	 * share of tasks; other tasks go to the least loaded member able to run
+	 * them.
+	 * </p>
+	 * 
+	 * @param capable
+	 *            tasks each live member is able to run, by member id
+	 * @param previous
+	 *            current assignment, by member id
+	 * @return the new assignment, by member id (members without tasks are
+	 *         included)
+	 */
+	static Map<String, List<String>> assign(Map<String, Set<String>> capable, Map<String, List<String>> previous) {
+
+		Map<String, List<String>> result = new TreeMap<>();
+		Set<String> tasks = new TreeSet<>();
+		for (Map.Entry<String, Set<String>> e : capable.entrySet()) {
+			result.put(e.getKey(), new ArrayList<>());
+			tasks.addAll(e.getValue());
+		}
+		if (result.isEmpty())
+			return result;
+		int share = (tasks.size() + result.size() - 1) / result.size();
+
+		Map<String, String> owners = new TreeMap<>();
+		for (Map.Entry<String, List<String>> e : previous.entrySet()) {
+			for (String task : e.getValue())
+				owners.put(task, e.getKey());
+		}
+
+		List<String> pending = new ArrayList<>();
+		for (String task : tasks) {
+			String owner = owners.get(task);
+			if (owner != null && capable.containsKey(owner) && capable.get(owner).contains(task)
+					&& result.get(owner).size() < share)
+				result.get(owner).add(task);
+			else
+				pending.add(task);
+		}
+
+		for (String task : pending) {
+			String target = null;
+			for (Map.Entry<String, Set<String>> e : capable.entrySet()) {
+				if (e.getValue().contains(task)
+						&& (target == null || result.get(e.getKey()).size() < result.get(target).size()))
+					target = e.getKey();
+			}
+			result.get(target).add(task);
+		}
+
+		for (List<String> list : result.values())
+			Collections.sort(list);
+		return result;
+	}
+}
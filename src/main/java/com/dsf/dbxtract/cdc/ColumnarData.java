@@ -0,0 +1,544 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A {@link Data} implementation that keeps captured rows by column, in
+ * growable arrays: integer columns as <code>long[]</code>, floating point
+ * columns as <code>double[]</code>, character columns as dictionary-encoded
+ * strings and any other type as <code>Object[]</code>. Nulls are kept in a
+ * bitmap per column.
+ * </p>
+ * <p>
+ * Values are read straight from the typed {@link ResultSet} getters, avoiding
+ * one boxed object per numeric cell and one array per row. Publishers should
+ * prefer the typed accessors ({@link #getLong(int, int)},
+ * {@link #getDouble(int, int)}, {@link #getString(int, int)}); the
+ * {@link #getRows()} view is kept for compatibility and builds each row on
+ * access.
+ * </p>
+ * 
+ * @author fabio de santi
+ */
+public class ColumnarData extends Data {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Column[] columns;
+	private int capacity = INITIAL_CAPACITY;
+	private int size = 0;
+
+	/**
+	 * Constructs a new object with a given list of column names and their
+	 * {@link Types} codes. No data is included at this time.
+	 * 
+	 * @param columnNames
+	 *            list of column names
+	 * @param sqlTypes
+	 *            column types, as in {@link java.sql.Types}
+	 */
+	public ColumnarData(String[] columnNames, int[] sqlTypes) {
+		super(columnNames);
+		if (sqlTypes.length != columnNames.length)
+			throw new IllegalArgumentException("types array size differs from column's count");
+
+		columns = new Column[sqlTypes.length];
+		for (int i = 0; i < sqlTypes.length; i++) {
+			columns[i] = newColumn(sqlTypes[i]);
+		}
+	}
+
+	/**
+	 * Constructs a new object with column names and types of a query result.
+	 * 
+	 * @param metaData
+	 *            result set's metadata
+	 * @throws SQLException
+	 *             any metadata retrieval failure
+	 */
+	public ColumnarData(ResultSetMetaData metaData) throws SQLException {
+		this(getColumnLabels(metaData), getColumnTypes(metaData));
+	}
+
+	/**
+	 * Retrieve the column labels from a result set's metadata.
+	 * 
+	 * @param metaData
+	 *            result set's metadata
+	 * @return array of column names
+	 * @throws SQLException
+	 *             any metadata retrieval failure
+	 */
+	public static String[] getColumnLabels(ResultSetMetaData metaData) throws SQLException {
+
+		String[] labels = new String[metaData.getColumnCount()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = metaData.getColumnLabel(i + 1);
+		}
+		return labels;
+	}
+
+	/**
+	 * Retrieve the column types from a result set's metadata. Integer columns
+	 * mapped by the driver to a wider java type (like MySQL's unsigned
+	 * columns) are promoted, so no value is truncated.
+	 * 
+	 * @param metaData
+	 *            result set's metadata
+	 * @return array of {@link Types} codes
+	 * @throws SQLException
+	 *             any metadata retrieval failure
+	 */
+	public static int[] getColumnTypes(ResultSetMetaData metaData) throws SQLException {
+
+		int[] types = new int[metaData.getColumnCount()];
+		for (int i = 0; i < types.length; i++) {
+			int type = metaData.getColumnType(i + 1);
+			String className = metaData.getColumnClassName(i + 1);
+			if (className != null && isIntegerType(type)) {
+				if (Long.class.getName().equals(className))
+					type = Types.BIGINT;
+				else if (!Integer.class.getName().equals(className) && !Short.class.getName().equals(className)
+						&& !Byte.class.getName().equals(className))
+					type = Types.OTHER;
+			}
+			types[i] = type;
+		}
+		return types;
+	}
+
+	private static boolean isIntegerType(int type) {
+		return type == Types.BIGINT || type == Types.INTEGER || type == Types.SMALLINT || type == Types.TINYINT;
+	}
+
+	private static Column newColumn(int sqlType) {
+
+		switch (sqlType) {
+		case Types.BIGINT:
+			return new LongColumn(false);
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return new LongColumn(true);
+		case Types.DOUBLE:
+		case Types.FLOAT:
+			return new DoubleColumn(false);
+		case Types.REAL:
+			return new DoubleColumn(true);
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+			return new StringColumn();
+		default:
+			return new ObjectColumn();
+		}
+	}
+
+	private void ensureCapacity() {
+
+		if (size < capacity)
+			return;
+
+		capacity = capacity * 2;
+		for (Column col : columns) {
+			col.grow(capacity);
+		}
+	}
+
+	/**
+	 * Add new data from a retrieved row (ResultSet cursor). Columns are read by
+	 * position, so the result set must have the same columns used to construct
+	 * this object.
+	 * 
+	 * @param rs
+	 *            {@link ResultSet} object
+	 * @throws SQLException
+	 *             any data retrieval failure
+	 */
+	@Override
+	public void append(ResultSet rs) throws SQLException {
+
+		ensureCapacity();
+		for (int i = 0; i < columns.length; i++) {
+			columns[i].read(rs, i + 1, size);
+		}
+		size++;
+	}
+
+	/**
+	 * Add data from an array of objects. This array must have the same size of
+	 * the {@link #getColumnNames()} and its values must be compatible with
+	 * column types.
+	 * 
+	 * @param values
+	 *            an array of objects (column's data)
+	 * @throws DataColumnMatchException
+	 *             values array size differs from column names array size or a
+	 *             value doesn't match its column type
+	 */
+	@Override
+	public void append(Object[] values) throws DataColumnMatchException {
+
+		if (values == null)
+			return;
+
+		if (values.length != columns.length)
+			throw new DataColumnMatchException("data array size differs from column's count");
+
+		ensureCapacity();
+		for (int i = 0; i < columns.length; i++) {
+			if (!columns[i].accepts(values[i]))
+				throw new DataColumnMatchException("value of column '" + getColumnNames()[i] + "' doesn't match its type: "
+						+ values[i].getClass().getName());
+		}
+		for (int i = 0; i < columns.length; i++) {
+			columns[i].set(size, values[i]);
+		}
+		size++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Retrieve a read-only view of data rows. Each row array is built on
+	 * access, so columnar accessors are preferable.
+	 * 
+	 * @return list of retrieved rows
+	 */
+	@Override
+	public List<Object[]> getRows() {
+
+		return new AbstractList<Object[]>() {
+
+			@Override
+			public Object[] get(int index) {
+				return getRow(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Retrieve a row as an array of objects.
+	 * 
+	 * @param row
+	 *            row index
+	 * @return column values
+	 */
+	public Object[] getRow(int row) {
+
+		checkRow(row);
+		Object[] values = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			values[i] = columns[i].isNull(row) ? null : columns[i].get(row);
+		}
+		return values;
+	}
+
+	/**
+	 * 
+	 * @param row
+	 *            row index
+	 * @param col
+	 *            column index
+	 * @return true if value is null
+	 */
+	public boolean isNull(int row, int col) {
+		checkRow(row);
+		return columns[col].isNull(row);
+	}
+
+	/**
+	 * Retrieve a value from an integer column, without boxing.
+	 * 
+	 * @param row
+	 *            row index
+	 * @param col
+	 *            column index
+	 * @return column value (0 if null)
+	 * @throws ClassCastException
+	 *             column is not an integer column
+	 */
+	public long getLong(int row, int col) {
+		checkRow(row);
+		return ((LongColumn) columns[col]).values[row];
+	}
+
+	/**
+	 * Retrieve a value from a floating point column, without boxing.
+	 * 
+	 * @param row
+	 *            row index
+	 * @param col
+	 *            column index
+	 * @return column value (0 if null)
+	 * @throws ClassCastException
+	 *             column is not a floating point column
+	 */
+	public double getDouble(int row, int col) {
+		checkRow(row);
+		return ((DoubleColumn) columns[col]).values[row];
+	}
+
+	/**
+	 * Retrieve a value from a character column.
+	 * 
+	 * @param row
+	 *            row index
+	 * @param col
+	 *            column index
+	 * @return column value
+	 * @throws ClassCastException
+	 *             column is not a character column
+	 */
+	public String getString(int row, int col) {
+		checkRow(row);
+		return columns[col].isNull(row) ? null : ((StringColumn) columns[col]).getString(row);
+	}
+
+	/**
+	 * Retrieve a value of any column.
+	 * 
+	 * @param row
+	 *            row index
+	 * @param col
+	 *            column index
+	 * @return column value (boxed for numeric columns)
+	 */
+	public Object getObject(int row, int col) {
+		checkRow(row);
+		return columns[col].isNull(row) ? null : columns[col].get(row);
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("row " + row + " out of " + size);
+	}
+
+	/**
+	 * Base class of column vectors, with a null bitmap.
+	 */
+	private abstract static class Column {
+
+		private long[] nulls = new long[(INITIAL_CAPACITY + 63) / 64];
+
+		void grow(int capacity) {
+			nulls = Arrays.copyOf(nulls, (capacity + 63) / 64);
+		}
+
+		boolean isNull(int row) {
+			return (nulls[row >>> 6] & (1L << row)) != 0;
+		}
+
+		void setNull(int row, boolean isNull) {
+			if (isNull)
+				nulls[row >>> 6] |= 1L << row;
+			else
+				nulls[row >>> 6] &= ~(1L << row);
+		}
+
+		void set(int row, Object value) {
+			setNull(row, value == null);
+			if (value != null)
+				setValue(row, value);
+		}
+
+		abstract boolean accepts(Object value);
+
+		abstract void setValue(int row, Object value);
+
+		abstract void read(ResultSet rs, int index, int row) throws SQLException;
+
+		abstract Object get(int row);
+	}
+
+	private static class LongColumn extends Column {
+
+		private final boolean asInteger;
+		private long[] values = new long[INITIAL_CAPACITY];
+
+		LongColumn(boolean asInteger) {
+			this.asInteger = asInteger;
+		}
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return value == null || value instanceof Long || value instanceof Integer || value instanceof Short
+					|| value instanceof Byte;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = ((Number) value).longValue();
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			values[row] = rs.getLong(index);
+			setNull(row, rs.wasNull());
+		}
+
+		@Override
+		Object get(int row) {
+			if (asInteger)
+				return Integer.valueOf((int) values[row]);
+			return Long.valueOf(values[row]);
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+
+		private final boolean asFloat;
+		private double[] values = new double[INITIAL_CAPACITY];
+
+		DoubleColumn(boolean asFloat) {
+			this.asFloat = asFloat;
+		}
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return value == null || value instanceof Double || value instanceof Float;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = ((Number) value).doubleValue();
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			values[row] = rs.getDouble(index);
+			setNull(row, rs.wasNull());
+		}
+
+		@Override
+		Object get(int row) {
+			if (asFloat)
+				return Float.valueOf((float) values[row]);
+			return Double.valueOf(values[row]);
+		}
+	}
+
+	private static class StringColumn extends Column {
+
+		private int[] codes = new int[INITIAL_CAPACITY];
+		private final List<String> dictionary = new ArrayList<>();
+		private final Map<String, Integer> dictionaryIndex = new HashMap<>();
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			codes = Arrays.copyOf(codes, capacity);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return value == null || value instanceof String;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			String s = (String) value;
+			Integer code = dictionaryIndex.get(s);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(s);
+				dictionaryIndex.put(s, code);
+			}
+			codes[row] = code;
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			set(row, rs.getString(index));
+		}
+
+		@Override
+		Object get(int row) {
+			return getString(row);
+		}
+
+		String getString(int row) {
+			return dictionary.get(codes[row]);
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+
+		private Object[] values = new Object[INITIAL_CAPACITY];
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		boolean accepts(Object value) {
+			return true;
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = value;
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			set(row, rs.getObject(index));
+		}
+
+		@Override
+		Object get(int row) {
+			return values[row];
+		}
+	}
+}
@@ -25,10 +25,12 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -54,7 +56,42 @@ import com.dsf.dbxtract.cdc.journal.JournalHandler;
  * </tr>
  * <tr>
  * <td>thread.pool.size</td>
- * <td>Maximum concurrent data capture executors</td>
+ * <td>Maximum concurrent data capture executors of each data source (see
+ * source.&lt;<i>source</i>&gt;.max.concurrency)</td>
+ * </tr>
+ * <tr>
+ * <td>statistics.flush.interval</td>
+ * <td>Milliseconds between writes of handler's statistics to ZooKeeper
+ * (default: 10000)</td>
+ * </tr>
+ * <tr>
+ * <td>metrics.http.port</td>
+ * <td>TCP port of the HTTP endpoint serving metrics in Prometheus format at
+ * <code>/metrics</code> (default: none, endpoint disabled)</td>
+ * </tr>
+ * <tr>
+ * <td>metrics.http.address</td>
+ * <td>Bind address of the metrics endpoint (default: all addresses)</td>
+ * </tr>
+ * <tr>
+ * <td>execution.mode</td>
+ * <td><code>platform</code> (capture cycles run on thread pools) or
+ * <code>virtual</code> (each cycle runs on a virtual thread, Java 21 or
+ * later; concurrency is limited only per data source, by
+ * source.&lt;<i>source</i>&gt;.max.concurrency or else by
+ * source.&lt;<i>source</i>&gt;.pool.max.total) (default: platform)</td>
+ * </tr>
+ * <tr>
+ * <td>cluster.assignment</td>
+ * <td>When true, a leader elected among agents assigns each handler (or
+ * handler partition) to a single live agent, instead of all agents competing
+ * for its lock every cycle (default: false)</td>
+ * </tr>
+ * <tr>
+ * <td>config.watch</td>
+ * <td>When true, the configuration file is watched and its changes to
+ * sources, handlers and pool settings are applied without restarting the
+ * agent (default: true)</td>
  * </tr>
  * <tr>
  * <td>affinity</td>
@@ -66,6 +103,12 @@ import com.dsf.dbxtract.cdc.journal.JournalHandler;
  * than zero)</td>
  * </tr>
  * <tr>
+ * <td>interval.max</td>
+ * <td>Maximum interval between data capture cycles of a handler whose journal
+ * is empty: its interval is doubled after each empty cycle up to this value
+ * (default: 60000)</td>
+ * </tr>
+ * <tr>
  * <td>sources</td>
  * <td>Comma-delimited list of data sources</td>
  * </tr>
@@ -89,23 +132,78 @@ import com.dsf.dbxtract.cdc.journal.JournalHandler;
  * <td>source.&lt;<i>source</i>&gt;.handlers</td>
  * <td>comma-delimited list of handler's full classnames</td>
  * </tr>
+ * <tr>
+ * <td>source.&lt;<i>source</i>&gt;.pool.min.idle</td>
+ * <td>minimum idle connections kept open for the source (default: 1)</td>
+ * </tr>
+ * <tr>
+ * <td>source.&lt;<i>source</i>&gt;.pool.max.total</td>
+ * <td>maximum connections opened for the source, shared by all its handlers
+ * (default: 8)</td>
+ * </tr>
+ * <tr>
+ * <td>source.&lt;<i>source</i>&gt;.max.concurrency</td>
+ * <td>maximum concurrent capture cycles of the source's handlers. Each source
+ * has its own threads, so a slow database never delays other sources
+ * (default: thread.pool.size)</td>
+ * </tr>
+ * <tr>
+ * <td>source.&lt;<i>source</i>&gt;.query.timeout</td>
+ * <td>maximum seconds a statement, or a wait for a pooled connection, may
+ * take (default: 0, no limit)</td>
+ * </tr>
  * </tbody>
  * </table>
+ * <p>
+ * Configuration is kept in an immutable snapshot, so getters never read the
+ * file. {@link #reload()} (usually called by a {@link ConfigWatcher}) loads
+ * the file again and reports differences to {@link Listener} objects as a
+ * {@link ConfigChange}. Handlers kept by a reload aren't instantiated again.
+ * </p>
  * 
  * @author fabio de santi
- * @version 0.5
+ * @version 0.6
  */
 public class Config {
 
 	private static final Logger logger = LogManager.getLogger(Config.class.getName());
 
-	private static final long MINUTE = 60000L;
-	private long lastLoaded = 0L;
-	private String configFilename = null;
-	private Properties props;
+	private final String configFilename;
+	private volatile Snapshot snapshot;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
 	private String agentName = null;
-	private Map<JournalHandler, Source> handlerMap = null;
-	private Sources sources = null;
+
+	/**
+	 * Receives configuration changes applied by {@link Config#reload()}.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+
+		/**
+		 * Called after a reload has changed the configuration.
+		 * 
+		 * @param change
+		 *            differences between the previous and the current
+		 *            configuration
+		 */
+		void configChanged(ConfigChange change);
+	}
+
+	/**
+	 * An immutable view of the configuration file.
+	 */
+	private static class Snapshot {
+
+		private final Properties props;
+		private final Sources sources;
+		private final Map<JournalHandler, Source> handlerMap;
+
+		Snapshot(Properties props, Sources sources, Map<JournalHandler, Source> handlerMap) {
+			this.props = props;
+			this.sources = sources;
+			this.handlerMap = Collections.unmodifiableMap(handlerMap);
+		}
+	}
 
 	/**
 	 * Constructs the object loading configuration properties from a given file.
@@ -119,95 +217,147 @@ public class Config {
 	public Config(String path) throws ConfigurationException {
 
 		configFilename = path;
-		init(path);
+		snapshot = load(null);
 	}
 
 	/**
-	 * Read configuration file data.
 	 * 
-	 * @param filename
-	 *            properties file pathname
+	 * @return configuration file pathname
+	 */
+	public String getFilename() {
+		return configFilename;
+	}
+
+	/**
+	 * Registers a listener of configuration changes.
 	 * 
-	 * @throws ConfigurationException
+	 * @param listener
+	 *            {@link Listener} object
 	 */
-	private void init(String filename) throws ConfigurationException {
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
 
-		try {
-			InputStream stream = new FileInputStream(new File(filename));
-			init(stream);
+	/**
+	 * 
+	 * @param listener
+	 *            {@link Listener} object to be removed
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
 
-		} catch (FileNotFoundException e) {
-			throw new ConfigurationException("configuration file not found: " + filename, e);
+	/**
+	 * Reads the configuration file again and, when anything has changed,
+	 * replaces the current snapshot and notifies listeners. If the file is
+	 * invalid, the current configuration is kept.
+	 * 
+	 * @return differences between the previous and the new configuration
+	 * @throws ConfigurationException
+	 *             any configuration retrieval error
+	 */
+	public synchronized ConfigChange reload() throws ConfigurationException {
+
+		Snapshot previous = snapshot;
+		Snapshot next = load(previous);
+		ConfigChange change = ConfigChange.compare(previous.props, previous.handlerMap, next.props,
+				next.handlerMap);
+		if (!change.isEmpty()) {
+			snapshot = next;
+			logger.info("Configuration reloaded: " + change);
+			for (Listener listener : listeners) {
+				try {
+					listener.configChanged(change);
+				} catch (RuntimeException e) {
+					logger.error("failed to apply configuration change", e);
+				}
+			}
 		}
+		return change;
 	}
 
 	/**
-	 * Get configuration data from a stream and initializes all class members.
-	 * 
-	 * @param stream
-	 *            configuration data stream
+	 * Read configuration file data.
 	 * 
+	 * @param previous
+	 *            current snapshot, whose handlers are reused, or null
+	 * @return a new snapshot
 	 * @throws ConfigurationException
 	 */
-	private void init(InputStream stream) throws ConfigurationException {
+	private Snapshot load(Snapshot previous) throws ConfigurationException {
 
 		Properties p = new Properties();
-		try {
+		try (InputStream stream = new FileInputStream(new File(configFilename))) {
 			p.load(stream);
 
+		} catch (FileNotFoundException e) {
+			throw new ConfigurationException("configuration file not found: " + configFilename, e);
+
 		} catch (IOException e) {
 			throw new ConfigurationException("failed to load configuration", e);
 		}
-		this.props = p;
 
 		// Prepare a handler's list and respective data sources
-		handlerMap = new HashMap<>();
-		Sources srcs = getDataSources();
-		if (srcs != null) {
-			List<String> affinity = getAffinity();
-			for (Source source : srcs.getSources()) {
-				if (affinity.isEmpty() || affinity.contains(source.getName())) {
-					addHandlerToMap(source);
-
-				} else
-					logger.info("Source named '" + source.getName() + "' ignored: no match with affinity paramater");
-			}
-
-		} else
-			logger.warn("No datasources defined");
-	}
-
-	/**
-	 * Updates the class attributes at least every one minute.
-	 * 
-	 * @throws ConfigurationException
-	 */
-	private void checkUpdated() throws ConfigurationException {
-
-		if (System.currentTimeMillis() - lastLoaded > MINUTE) {
-			lastLoaded = System.currentTimeMillis();
-			init(configFilename);
+		Sources srcs = parseDataSources(p);
+		Map<JournalHandler, Source> handlerMap = new LinkedHashMap<>();
+		List<String> affinity = parseAffinity(p);
+		for (Source source : srcs.getSources()) {
+			if (affinity.isEmpty() || affinity.contains(source.getName())) {
+				addHandlerToMap(handlerMap, source, previous);
+
+			} else
+				logger.info("Source named '" + source.getName() + "' ignored: no match with affinity paramater");
 		}
+		return new Snapshot(p, srcs, handlerMap);
 	}
 
 	/**
-	 * Add a handler to the handler's map (handler x source).
+	 * Add a source's handlers to a handler's map (handler x source). A handler
+	 * of the previous snapshot is reused when its source's connection hasn't
+	 * changed.
 	 * 
+	 * @param handlerMap
+	 *            map to be filled
 	 * @param source
 	 *            {@link Source} object
+	 * @param previous
+	 *            current snapshot or null
 	 * @throws ConfigurationException
 	 */
-	private void addHandlerToMap(Source source) throws ConfigurationException {
-
+	private static void addHandlerToMap(Map<JournalHandler, Source> handlerMap, Source source, Snapshot previous)
+			throws ConfigurationException {
+
+		List<JournalHandler> reusable = new ArrayList<>();
+		if (previous != null) {
+			for (Map.Entry<JournalHandler, Source> e : previous.handlerMap.entrySet()) {
+				if (e.getValue().equals(source))
+					reusable.add(e.getKey());
+			}
+		}
 		for (String handlerName : source.getHandlers()) {
-			JournalHandler handler;
-			try {
-				handler = (JournalHandler) Class.forName(handlerName).newInstance();
-				handlerMap.put(handler, source);
+			JournalHandler handler = null;
+			for (JournalHandler h : reusable) {
+				if (h.getClass().getName().equals(handlerName)) {
+					handler = h;
+					break;
+				}
+			}
+			if (handler != null) {
+				reusable.remove(handler);
+			} else {
+				try {
+					handler = (JournalHandler) Class.forName(handlerName).newInstance();
 
-			} catch (Exception e) {
-				throw new ConfigurationException("Unable to instantiate a handler: " + handlerName, e);
+				} catch (Exception e) {
+					throw new ConfigurationException("Unable to instantiate a handler: " + handlerName, e);
+				}
+				// rows of a key must stay in the same partition
+				if (handler.getPartitions() > 1
+						&& (handler.getPartitionKey() == null || handler.getPartitionKey().trim().isEmpty()))
+					throw new ConfigurationException("Handler " + handlerName + " has " + handler.getPartitions()
+							+ " partitions but no partition key");
 			}
+			handlerMap.put(handler, source);
 		}
 	}
 
@@ -221,23 +371,33 @@ public class Config {
 	 *             when a required entry is missed
 	 */
 	public Sources getDataSources() throws ConfigurationException {
+		return snapshot.sources;
+	}
 
-		checkUpdated();
-		if (sources == null) {
-			String srcs = props.getProperty("sources");
-			if (srcs == null)
-				throw new ConfigurationException("Required configuration entry missed: 'sources'");
+	private static Sources parseDataSources(Properties props) throws ConfigurationException {
 
-			sources = new Sources();
-			for (String srcname : srcs.split(",")) {
-				sources.getSources().add(getDataSource(srcname));
-			}
+		String srcs = props.getProperty("sources");
+		if (srcs == null)
+			throw new ConfigurationException("Required configuration entry missed: 'sources'");
+
+		Sources sources = new Sources();
+		for (String srcname : srcs.split(",")) {
+			sources.getSources().add(parseDataSource(props, srcname));
+		}
 
-			String intrvl = props.getProperty("interval");
-			if (intrvl == null || intrvl.isEmpty())
-				throw new ConfigurationException("Required configuration entry missed: 'interval'");
+		String intrvl = props.getProperty("interval");
+		if (intrvl == null || intrvl.isEmpty())
+			throw new ConfigurationException("Required configuration entry missed: 'interval'");
 
-			sources.setInterval(Long.parseLong(intrvl));
+		try {
+			sources.setInterval(Long.parseLong(intrvl.trim()));
+
+			String maxIntrvl = props.getProperty("interval.max");
+			if (maxIntrvl != null && !maxIntrvl.isEmpty())
+				sources.setMaxInterval(Long.parseLong(maxIntrvl.trim()));
+
+		} catch (NumberFormatException nfe) {
+			throw new ConfigurationException("Invalid interval: " + nfe.getMessage(), nfe);
 		}
 		return sources;
 	}
@@ -245,13 +405,15 @@ public class Config {
 	/**
 	 * Retrieve a datasource by its name.
 	 * 
+	 * @param props
+	 *            configuration properties
 	 * @param srcname
 	 *            data source name
 	 * @return a {@link Source} object that matches with the given name
 	 * 
 	 * @throws ConfigurationException
 	 */
-	private Source getDataSource(String srcname) throws ConfigurationException {
+	private static Source parseDataSource(Properties props, String srcname) throws ConfigurationException {
 
 		if (srcname == null || srcname.isEmpty())
 			throw new ConfigurationException("source name cannot be empty or null");
@@ -267,9 +429,39 @@ public class Config {
 			source.getHandlers().add(handler.trim());
 		}
 
+		source.setPoolMinIdle(getInt(props, key + "pool.min.idle", source.getPoolMinIdle()));
+		source.setPoolMaxTotal(getInt(props, key + "pool.max.total", source.getPoolMaxTotal()));
+		source.setMaxConcurrency(getInt(props, key + "max.concurrency", source.getMaxConcurrency()));
+		source.setQueryTimeout(getInt(props, key + "query.timeout", source.getQueryTimeout()));
+
 		return source;
 	}
 
+	/**
+	 * Retrieves an integer parameter.
+	 * 
+	 * @param props
+	 *            configuration properties
+	 * @param key
+	 *            parameter name
+	 * @param defaultValue
+	 *            value assumed when parameter is missing or invalid
+	 * @return parameter value
+	 */
+	private static int getInt(Properties props, String key, int defaultValue) {
+
+		int value = defaultValue;
+		String p = props.getProperty(key);
+		if (p != null && !p.isEmpty()) {
+			try {
+				value = Integer.parseInt(p.trim());
+			} catch (NumberFormatException nfe) {
+				logger.warn("Invalid config '" + key + "' = " + p + " -> assuming " + value);
+			}
+		}
+		return value;
+	}
+
 	/**
 	 * Retrieves all handlers defined in the configuration properties.
 	 * 
@@ -279,8 +471,7 @@ public class Config {
 	 *             any configuration retrieval error
 	 */
 	public Collection<JournalHandler> getHandlers() throws ConfigurationException {
-		checkUpdated();
-		return handlerMap.keySet();
+		return snapshot.handlerMap.keySet();
 	}
 
 	/**
@@ -294,8 +485,7 @@ public class Config {
 	 *             any configuration retrieval error
 	 */
 	public Source getSourceByHandler(JournalHandler handler) throws ConfigurationException {
-		checkUpdated();
-		return handlerMap.get(handler);
+		return snapshot.handlerMap.get(handler);
 	}
 
 	/**
@@ -307,8 +497,7 @@ public class Config {
 	 *             any configuration retrieval error
 	 */
 	public String getZooKeeper() throws ConfigurationException {
-		checkUpdated();
-		String s = props.getProperty("zookeeper");
+		String s = snapshot.props.getProperty("zookeeper");
 		if (s == null || s.isEmpty())
 			throw new ConfigurationException("zookeeper is a required configuration parameter!");
 		return s;
@@ -322,17 +511,80 @@ public class Config {
 	 *             any configuration retrieval error
 	 */
 	public int getThreadPoolSize() throws ConfigurationException {
-		checkUpdated();
-		int pool = 5;
-		String p = props.getProperty("thread.pool.size");
-		if (p != null && !p.isEmpty()) {
-			try {
-				pool = Integer.parseInt(p);
-			} catch (NumberFormatException nfe) {
-				logger.warn("Invalid config 'thread.pool.size' = " + p + " -> assuming " + pool);
-			}
+		return getInt(snapshot.props, "thread.pool.size", 5);
+	}
+
+	/**
+	 * Retrieves the <code>metrics.http.port</code> parameter.
+	 * 
+	 * @return TCP port of the metrics endpoint, or 0 if it's disabled
+	 * @throws ConfigurationException
+	 *             any configuration retrieval error
+	 */
+	public int getMetricsHttpPort() throws ConfigurationException {
+		return getInt(snapshot.props, "metrics.http.port", 0);
+	}
+
+	/**
+	 * Retrieves the <code>metrics.http.address</code> parameter.
+	 * 
+	 * @return bind address of the metrics endpoint, or null for all addresses
+	 * @throws ConfigurationException
+	 *             any configuration retrieval error
+	 */
+	public String getMetricsHttpAddress() throws ConfigurationException {
+		String s = snapshot.props.getProperty("metrics.http.address");
+		return s == null || s.trim().isEmpty() ? null : s.trim();
+	}
+
+	/**
+	 * Retrieves the <code>execution.mode</code> parameter.
+	 * 
+	 * @return how capture cycles are executed
+	 * @throws ConfigurationException
+	 *             any configuration retrieval error
+	 */
+	public AdaptiveScheduler.ExecutionMode getExecutionMode() throws ConfigurationException {
+		String s = snapshot.props.getProperty("execution.mode", "platform").trim();
+		try {
+			return AdaptiveScheduler.ExecutionMode.valueOf(s.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationException("Invalid execution.mode: '" + s + "' (expected platform or virtual)", e);
 		}
-		return pool;
+	}
+
+	/**
+	 * Retrieves the <code>cluster.assignment</code> parameter.
+	 * 
+	 * @return true if handlers are assigned to agents by a cluster leader
+	 * @throws ConfigurationException
+	 *             any configuration retrieval error
+	 */
+	public boolean isClusterAssignment() throws ConfigurationException {
+		return Boolean.parseBoolean(snapshot.props.getProperty("cluster.assignment", "false").trim());
+	}
+
+	/**
+	 * Retrieves the <code>config.watch</code> parameter.
+	 * 
+	 * @return true if changes to the configuration file are applied while the
+	 *         agent runs
+	 * @throws ConfigurationException
+	 *             any configuration retrieval error
+	 */
+	public boolean isConfigWatch() throws ConfigurationException {
+		return Boolean.parseBoolean(snapshot.props.getProperty("config.watch", "true").trim());
+	}
+
+	/**
+	 * Retrieves the <code>statistics.flush.interval</code> parameter.
+	 * 
+	 * @return milliseconds between writes of handler's statistics
+	 * @throws ConfigurationException
+	 *             any configuration retrieval error
+	 */
+	public long getStatisticsFlushInterval() throws ConfigurationException {
+		return Math.max(1, getInt(snapshot.props, "statistics.flush.interval", 10000));
 	}
 
 	/**
@@ -346,8 +598,11 @@ public class Config {
 	 *             any configuration retrieval error
 	 */
 	public List<String> getAffinity() throws ConfigurationException {
+		return parseAffinity(snapshot.props);
+	}
+
+	private static List<String> parseAffinity(Properties props) {
 
-		checkUpdated();
 		List<String> affinity = new ArrayList<>();
 		String aff = props.getProperty("affinity");
 		if (aff != null && !aff.isEmpty()) {
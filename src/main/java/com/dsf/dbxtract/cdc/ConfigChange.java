@@ -0,0 +1,200 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dsf.dbxtract.cdc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.dsf.dbxtract.cdc.journal.JournalHandler;
+
+/**
+ * Differences between two versions of the agent's configuration, as found by
+ * {@link Config#reload()}:
+ * <ul>
+ * <li>handlers added or removed (a handler whose source's connection has
+ * changed is removed and added again)</li>
+ * <li>sources no longer in use, whose pools must be closed</li>
+ * <li>sources whose pool or concurrency settings have changed</li>
+ * <li>other properties, only applied when the agent is restarted</li>
+ * </ul>
+ * 
+ * @author fabio de santi
+ */
+public class ConfigChange {
+
+	private final Map<JournalHandler, Source> addedHandlers = new LinkedHashMap<>();
+	private final Map<JournalHandler, Source> removedHandlers = new LinkedHashMap<>();
+	private final List<Source> removedSources = new ArrayList<>();
+	private final List<Source> resizedSources = new ArrayList<>();
+	private final Set<String> restartProperties = new TreeSet<>();
+
+	private ConfigChange() {
+	}
+
+	/**
+	 * Compares two configurations. Handlers are compared by identity, so
+	 * handlers reused by a reload are kept.
+	 * 
+	 * @param oldProps
+	 *            previous configuration properties
+	 * @param oldHandlers
+	 *            previous handlers and their sources
+	 * @param newProps
+	 *            new configuration properties
+	 * @param newHandlers
+	 *            new handlers and their sources
+	 * @return the differences found
+	 */
+	static ConfigChange compare(Properties oldProps, Map<JournalHandler, Source> oldHandlers, Properties newProps,
+			Map<JournalHandler, Source> newHandlers) {
+
+		ConfigChange change = new ConfigChange();
+		for (Map.Entry<JournalHandler, Source> e : oldHandlers.entrySet()) {
+			if (!newHandlers.containsKey(e.getKey()))
+				change.removedHandlers.put(e.getKey(), e.getValue());
+		}
+		for (Map.Entry<JournalHandler, Source> e : newHandlers.entrySet()) {
+			if (!oldHandlers.containsKey(e.getKey()))
+				change.addedHandlers.put(e.getKey(), e.getValue());
+		}
+
+		// sources are equal while their connection is the same
+		for (Source source : distinct(oldHandlers)) {
+			Source current = find(newHandlers, source);
+			if (current == null)
+				change.removedSources.add(source);
+			else if (current.getPoolMinIdle() != source.getPoolMinIdle()
+					|| current.getPoolMaxTotal() != source.getPoolMaxTotal()
+					|| current.getMaxConcurrency() != source.getMaxConcurrency()
+					|| current.getQueryTimeout() != source.getQueryTimeout())
+				change.resizedSources.add(current);
+		}
+
+		Set<String> keys = new TreeSet<>(oldProps.stringPropertyNames());
+		keys.addAll(newProps.stringPropertyNames());
+		for (String key : keys) {
+			if (!key.startsWith("source.") && !"sources".equals(key) && !"affinity".equals(key)
+					&& !Objects.equals(oldProps.getProperty(key), newProps.getProperty(key)))
+				change.restartProperties.add(key);
+		}
+		return change;
+	}
+
+	private static List<Source> distinct(Map<JournalHandler, Source> handlers) {
+
+		List<Source> list = new ArrayList<>();
+		for (Source source : handlers.values()) {
+			if (!list.contains(source))
+				list.add(source);
+		}
+		return list;
+	}
+
+	private static Source find(Map<JournalHandler, Source> handlers, Source source) {
+
+		for (Source s : handlers.values()) {
+			if (s.equals(source))
+				return s;
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * @return handlers to be started, with their sources
+	 */
+	public Map<JournalHandler, Source> getAddedHandlers() {
+		return Collections.unmodifiableMap(addedHandlers);
+	}
+
+	/**
+	 * 
+	 * @return handlers to be stopped, with their previous sources
+	 */
+	public Map<JournalHandler, Source> getRemovedHandlers() {
+		return Collections.unmodifiableMap(removedHandlers);
+	}
+
+	/**
+	 * 
+	 * @return previous sources no longer used by any handler
+	 */
+	public List<Source> getRemovedSources() {
+		return Collections.unmodifiableList(removedSources);
+	}
+
+	/**
+	 * 
+	 * @return sources (new settings) whose pool or concurrency has changed
+	 */
+	public List<Source> getResizedSources() {
+		return Collections.unmodifiableList(resizedSources);
+	}
+
+	/**
+	 * 
+	 * @return changed properties that are only applied at agent's restart
+	 */
+	public Set<String> getRestartProperties() {
+		return Collections.unmodifiableSet(restartProperties);
+	}
+
+	/**
+	 * 
+	 * @return true if both configurations are equivalent
+	 */
+	public boolean isEmpty() {
+		return addedHandlers.isEmpty() && removedHandlers.isEmpty() && removedSources.isEmpty()
+				&& resizedSources.isEmpty() && restartProperties.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ConfigChange [added=").append(names(addedHandlers)).append(", removed=")
+				.append(names(removedHandlers)).append(", removedSources=").append(sourceNames(removedSources))
+				.append(", resizedSources=").append(sourceNames(resizedSources)).append(", restart=")
+				.append(restartProperties).append(']');
+		return sb.toString();
+	}
+
+	private static List<String> names(Map<JournalHandler, Source> handlers) {
+
+		List<String> list = new ArrayList<>();
+		for (Map.Entry<JournalHandler, Source> e : handlers.entrySet()) {
+			list.add(e.getValue().getName() + "/" + e.getKey().getClass().getName());
+		}
+		return list;
+	}
+
+	private static List<String> sourceNames(List<Source> sources) {
+
+		List<String> list = new ArrayList<>();
+		for (Source source : sources) {
+			list.add(source.getName());
+		}
+		return list;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dsf.dbxtract.cdc;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches the configuration file and calls {@link Config#reload()} when it
+ * changes, from its own thread, so capture cycles never read the file. Events
+ * are coalesced: the file is read once it's been quiet for a while, since
+ * editors usually write a file in several steps.
+ * 
+ * @author fabio de santi
+ */
+public class ConfigWatcher {
+
+	private static final Logger logger = LogManager.getLogger(ConfigWatcher.class.getName());
+
+	private static final long QUIET_PERIOD = 500L;
+
+	private final Config config;
+	private final Path file;
+	private WatchService watcher = null;
+	private Thread thread = null;
+
+	/**
+	 * 
+	 * @param config
+	 *            configuration to be reloaded
+	 */
+	public ConfigWatcher(Config config) {
+		this.config = config;
+		this.file = Paths.get(config.getFilename()).toAbsolutePath();
+	}
+
+	/**
+	 * Starts watching the configuration file's directory.
+	 * 
+	 * @throws ConfigurationException
+	 *             the directory can't be watched
+	 */
+	public synchronized void start() throws ConfigurationException {
+
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+
+		} catch (IOException e) {
+			throw new ConfigurationException("Unable to watch configuration file " + file, e);
+		}
+		thread = new Thread(this::watch, "dbxtract-config");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Watching configuration file " + file);
+	}
+
+	/**
+	 * Stops watching the configuration file.
+	 */
+	public synchronized void close() {
+
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				logger.warn("failed to close configuration watcher", e);
+			}
+			watcher = null;
+		}
+		thread = null;
+	}
+
+	private void watch() {
+
+		WatchService ws = watcher;
+		try {
+			while (true) {
+				if (isChanged(ws.take())) {
+					// wait for the file to be completely written
+					WatchKey key;
+					while ((key = ws.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null) {
+						isChanged(key);
+					}
+					reload();
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			if (logger.isDebugEnabled())
+				logger.debug("configuration watcher stopped");
+		}
+	}
+
+	/**
+	 * Consumes a key's events.
+	 * 
+	 * @param key
+	 *            signalled key
+	 * @return true if any event may refer to the configuration file
+	 */
+	private boolean isChanged(WatchKey key) {
+
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+				changed = true;
+		}
+		key.reset();
+		return changed;
+	}
+
+	private void reload() {
+
+		try {
+			ConfigChange change = config.reload();
+			if (change.isEmpty() && logger.isDebugEnabled())
+				logger.debug("configuration file changed, no changes to apply");
+
+		} catch (ConfigurationException | RuntimeException e) {
+			logger.error("Invalid configuration file " + file + ", current configuration kept", e);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.dsf.utils.sql.DBUtils;
+
+/**
+ * Process-wide registry of connection pools. There is a single pool for each
+ * {@link Source}, shared by all handlers reading from it.
+ * 
+ * @author fabio de santi
+ */
+public class ConnectionPools {
+
+	private static final Logger logger = LogManager.getLogger(ConnectionPools.class.getName());
+
+	private static final int VALIDATION_TIMEOUT = 5;
+
+	private static ConnectionPools instance;
+
+	private final Map<Source, BasicDataSource> pools = new ConcurrentHashMap<>();
+
+	private ConnectionPools() {
+	}
+
+	/**
+	 * 
+	 * @return the registry instance
+	 */
+	public static synchronized ConnectionPools getInstance() {
+		if (instance == null)
+			instance = new ConnectionPools();
+		return instance;
+	}
+
+	/**
+	 * Retrieves the connection pool of a source, creating it if needed.
+	 * 
+	 * @param source
+	 *            {@link Source} object
+	 * @return source's connection pool
+	 */
+	public BasicDataSource getDataSource(Source source) {
+		return pools.computeIfAbsent(source, ConnectionPools::createDataSource);
+	}
+
+	/**
+	 * Borrows a connection from the source's pool.
+	 * 
+	 * @param source
+	 *            {@link Source} object
+	 * @return a database connection, to be closed by the caller
+	 * @throws SQLException
+	 *             any connection failure
+	 */
+	public Connection getConnection(Source source) throws SQLException {
+		return getDataSource(source).getConnection();
+	}
+
+	/**
+	 * 
+	 * @return opened pools, by source name
+	 */
+	public Map<String, BasicDataSource> getPools() {
+
+		Map<String, BasicDataSource> map = new TreeMap<>();
+		for (Map.Entry<Source, BasicDataSource> e : pools.entrySet()) {
+			map.put(e.getKey().getName(), e.getValue());
+		}
+		return map;
+	}
+
+	private static BasicDataSource createDataSource(Source source) {
+
+		if (logger.isDebugEnabled())
+			logger.debug("setting up a connection pool for " + source.toString());
+		BasicDataSource ds = new BasicDataSource();
+		ds.setDriverClassName(source.getDriver());
+		ds.setUsername(source.getUser());
+		ds.setPassword(source.getPassword());
+		ds.setUrl(source.getConnection());
+		ds.setMaxTotal(source.getPoolMaxTotal());
+		ds.setMaxIdle(source.getPoolMaxTotal());
+		ds.setMinIdle(source.getPoolMinIdle());
+		ds.setInitialSize(source.getPoolMinIdle());
+		ds.setTestOnBorrow(true);
+		if (source.getQueryTimeout() > 0) {
+			// a hung database fails capture cycles instead of holding threads
+			ds.setDefaultQueryTimeout(source.getQueryTimeout());
+			ds.setMaxWaitMillis(source.getQueryTimeout() * 1000L);
+		}
+		return ds;
+	}
+
+	/**
+	 * Opens the source's pool and validates a connection, so minimum idle
+	 * connections are ready before the first capture. A failure is only
+	 * logged: the pool keeps trying on each capture cycle.
+	 * 
+	 * @param source
+	 *            {@link Source} object
+	 * @return true if a valid connection was obtained
+	 */
+	public boolean prewarm(Source source) {
+
+		Connection conn = null;
+		try {
+			conn = getConnection(source);
+			if (conn.isValid(VALIDATION_TIMEOUT)) {
+				logger.info("Connection pool ready for source '" + source.getName() + "'");
+				return true;
+			}
+			logger.error("Invalid connection to source '" + source.getName() + "'");
+
+		} catch (SQLException e) {
+			logger.error("Unable to connect to source '" + source.getName() + "'", e);
+
+		} finally {
+			DBUtils.close(conn);
+		}
+		return false;
+	}
+
+	/**
+	 * Applies a source's pool settings to its opened pool. Pool sizes are
+	 * changed without closing connections; a new query timeout requires a new
+	 * pool, so the current one is replaced and its connections are closed as
+	 * soon as they're returned.
+	 * 
+	 * @param source
+	 *            {@link Source} object with new settings
+	 */
+	public void resize(Source source) {
+
+		BasicDataSource ds = pools.get(source);
+		if (ds == null)
+			return;
+		Integer timeout = source.getQueryTimeout() > 0 ? source.getQueryTimeout() : null;
+		if (!Objects.equals(timeout, ds.getDefaultQueryTimeout())) {
+			pools.put(source, createDataSource(source));
+			try {
+				ds.close();
+
+			} catch (SQLException sqle) {
+				logger.warn("closing connection pool of " + source.getName(), sqle);
+			}
+			logger.info("Connection pool of source '" + source.getName() + "' replaced");
+			return;
+		}
+		ds.setMaxTotal(source.getPoolMaxTotal());
+		ds.setMaxIdle(source.getPoolMaxTotal());
+		ds.setMinIdle(source.getPoolMinIdle());
+		logger.info("Connection pool of source '" + source.getName() + "' resized to " + source.getPoolMaxTotal()
+				+ " connections");
+	}
+
+	/**
+	 * Closes the pool of a source.
+	 * 
+	 * @param source
+	 *            {@link Source} object
+	 */
+	public void close(Source source) {
+
+		BasicDataSource ds = pools.remove(source);
+		if (ds != null) {
+			try {
+				ds.close();
+
+			} catch (SQLException sqle) {
+				logger.warn("closing connection pool of " + source.getName(), sqle);
+			}
+		}
+	}
+
+	/**
+	 * Closes all pools.
+	 */
+	public void close() {
+
+		for (Map.Entry<Source, BasicDataSource> e : pools.entrySet()) {
+			try {
+				e.getValue().close();
+
+			} catch (SQLException sqle) {
+				logger.warn("closing connection pool of " + e.getKey().getName(), sqle);
+			}
+		}
+		pools.clear();
+	}
+}
@@ -92,6 +92,15 @@ public class Data {
 		return columnNames;
 	}
 
+	/**
+	 * Retrieve the number of data rows.
+	 * 
+	 * @return number of rows
+	 */
+	public int size() {
+		return rows.size();
+	}
+
 	/**
 	 * Retrieve the list of data rows.
 	 * 
@@ -19,6 +19,7 @@ package com.dsf.dbxtract.cdc;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 import com.dsf.dbxtract.cdc.journal.JournalHandler;
 
@@ -37,6 +38,10 @@ public class Source {
 	private String user;
 	private String password;
 	private List<String> handlers;
+	private int poolMinIdle = 1;
+	private int poolMaxTotal = 8;
+	private int maxConcurrency = 0;
+	private int queryTimeout = 0;
 
 	/**
 	 * Constructor
@@ -121,6 +126,101 @@ public class Source {
 		return handlers;
 	}
 
+	/**
+	 * 
+	 * @return minimum idle connections kept by the source's connection pool
+	 */
+	public int getPoolMinIdle() {
+		return poolMinIdle;
+	}
+
+	/**
+	 * 
+	 * @param poolMinIdle
+	 *            minimum idle connections kept by the source's connection pool
+	 */
+	public void setPoolMinIdle(int poolMinIdle) {
+		this.poolMinIdle = poolMinIdle;
+	}
+
+	/**
+	 * 
+	 * @return maximum connections (active and idle) of the source's
+	 *         connection pool
+	 */
+	public int getPoolMaxTotal() {
+		return poolMaxTotal;
+	}
+
+	/**
+	 * 
+	 * @param poolMaxTotal
+	 *            maximum connections (active and idle) of the source's
+	 *            connection pool
+	 */
+	public void setPoolMaxTotal(int poolMaxTotal) {
+		this.poolMaxTotal = poolMaxTotal;
+	}
+
+	/**
+	 * 
+	 * @return maximum concurrent capture cycles of the source's handlers, or
+	 *         0 to use the agent's thread pool size
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * 
+	 * @param maxConcurrency
+	 *            maximum concurrent capture cycles of the source's handlers,
+	 *            or 0 to use the agent's thread pool size
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * 
+	 * @return maximum seconds a statement (or a wait for a pooled connection)
+	 *         may take, or 0 for no limit
+	 */
+	public int getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	/**
+	 * 
+	 * @param queryTimeout
+	 *            maximum seconds a statement (or a wait for a pooled
+	 *            connection) may take, or 0 for no limit
+	 */
+	public void setQueryTimeout(int queryTimeout) {
+		this.queryTimeout = queryTimeout;
+	}
+
+	/**
+	 * Two sources are equal when they have the same name and connection
+	 * parameters (handlers, pool sizing and limits are not considered).
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Source))
+			return false;
+		Source other = (Source) obj;
+		return Objects.equals(name, other.name) && Objects.equals(connection, other.connection)
+				&& Objects.equals(driver, other.driver) && Objects.equals(user, other.user)
+				&& Objects.equals(password, other.password);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, connection, driver, user, password);
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
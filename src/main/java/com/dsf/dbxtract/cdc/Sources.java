@@ -32,6 +32,7 @@ public class Sources {
 
 	private List<Source> sourceList = null;
 	private long interval = 5000L;
+	private long maxInterval = 60000L;
 
 	/**
 	 * 
@@ -61,11 +62,29 @@ public class Sources {
 		this.interval = millisecs;
 	}
 
+	/**
+	 * 
+	 * @return maximum milliseconds between capture cycles of an idle handler
+	 */
+	public long getMaxInterval() {
+		return maxInterval;
+	}
+
+	/**
+	 * Update maximum execution interval (idle handlers back off up to it)
+	 * 
+	 * @param millisecs
+	 *            maximum interval between executions
+	 */
+	public void setMaxInterval(long millisecs) {
+		this.maxInterval = millisecs;
+	}
+
 	@Override
 	public String toString() {
 
 		StringBuilder sb = new StringBuilder();
-		sb.append("Sources {interval=").append(interval).append(", sources=[");
+		sb.append("Sources {interval=").append(interval).append(", maxInterval=").append(maxInterval).append(", sources=[");
 		Iterator<Source> it = getSources().iterator();
 		while (it.hasNext()) {
 			Source src = it.next();
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dsf.dbxtract.cdc;
+
+import java.util.PriorityQueue;
+
+/**
+ * A queue ordering items of several flows by weighted fair queuing. Each item
+ * gets a virtual finish time: its flow's previous finish time (or the queue's
+ * virtual time, if later) plus the item's cost divided by the flow's weight.
+ * Items are polled by ascending finish time, so under contention each flow is
+ * served in proportion to its weight, whatever its items cost. An idle flow
+ * starts again from the queue's virtual time, so it can't accumulate credit
+ * while it has nothing queued.
+ * 
+ * It's not thread safe.
+ * 
+ * @author fabio de santi
+ */
+class WeightedFairQueue<T> {
+
+	/**
+	 * A sequence of items sharing a weight.
+	 */
+	static class Flow {
+
+		private final int weight;
+		private double finish = 0d;
+
+		/**
+		 * 
+		 * @param weight
+		 *            flow's share, relative to other flows (at least 1)
+		 */
+		Flow(int weight) {
+			this.weight = Math.max(1, weight);
+		}
+
+		int getWeight() {
+			return weight;
+		}
+	}
+
+	private static class Entry<T> implements Comparable<Entry<T>> {
+
+		private final T item;
+		private final double start;
+		private final double finish;
+		private final long seq;
+
+		Entry(T item, double start, double finish, long seq) {
+			this.item = item;
+			this.start = start;
+			this.finish = finish;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Entry<T> o) {
+			int c = Double.compare(finish, o.finish);
+			return c != 0 ? c : Long.compare(seq, o.seq);
+		}
+	}
+
+	private final PriorityQueue<Entry<T>> queue = new PriorityQueue<>();
+	private double virtualTime = 0d;
+	private long seq = 0L;
+
+	/**
+	 * Queues an item.
+	 * 
+	 * @param item
+	 *            item to be queued
+	 * @param flow
+	 *            item's flow
+	 * @param cost
+	 *            item's cost (like its expected service time)
+	 */
+	void add(T item, Flow flow, long cost) {
+
+		double start = Math.max(virtualTime, flow.finish);
+		flow.finish = start + (double) Math.max(1L, cost) / flow.weight;
+		queue.add(new Entry<>(item, start, flow.finish, seq++));
+	}
+
+	/**
+	 * 
+	 * @return the item with the earliest virtual finish time, or null if the
+	 *         queue is empty
+	 */
+	T poll() {
+
+		Entry<T> e = queue.poll();
+		if (e == null)
+			return null;
+		virtualTime = Math.max(virtualTime, e.start);
+		return e.item;
+	}
+
+	boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	int size() {
+		return queue.size();
+	}
+
+	void clear() {
+		queue.clear();
+	}
+}
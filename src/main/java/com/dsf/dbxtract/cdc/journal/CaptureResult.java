@@ -0,0 +1,36 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+/**
+ * Outcome of a capture cycle of a {@link JournalExecutor}, used to decide when
+ * its next cycle should run:
+ * <ul>
+ * <li>FULL = a full batch was captured, journal may have more data</li>
+ * <li>PARTIAL = journal was drained</li>
+ * <li>EMPTY = journal had no data</li>
+ * <li>SKIPPED = executor disabled or zookeeper not connected</li>
+ * <li>LOCKED = lock held by another agent</li>
+ * <li>FAILED = cycle failed</li>
+ * </ul>
+ * 
+ * @author fabio de santi
+ *
+ */
+public enum CaptureResult {
+	FULL, PARTIAL, EMPTY, SKIPPED, LOCKED, FAILED
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.dsf.dbxtract.cdc.Data;
+import com.dsf.dbxtract.cdc.PublishException;
+import com.dsf.dbxtract.cdc.mon.HandlerMetrics;
+import com.dsf.dbxtract.cdc.mon.Metrics;
+import com.dsf.dbxtract.cdc.mon.Stage;
+
+/**
+ * Calls {@link JournalHandler#publishAsync(Data)} keeping at most
+ * {@link JournalHandler#getMaxInFlight()} publish calls not yet completed, and
+ * tracks them so the journal is only updated after the data of a batch was
+ * published.
+ * 
+ * This class is not thread-safe: publish calls of an executor are always made
+ * by a single thread.
+ * 
+ * @author fabio de santi
+ */
+class InFlightPublisher {
+
+	private final JournalHandler handler;
+	private final HandlerMetrics metrics;
+	private final Semaphore permits;
+	private List<CompletableFuture<Void>> pending = new ArrayList<>();
+	private volatile Throwable failure = null;
+
+	/**
+	 * 
+	 * @param handler
+	 *            the publishing handler
+	 * @param metrics
+	 *            handler's metrics
+	 */
+	InFlightPublisher(JournalHandler handler, HandlerMetrics metrics) {
+		this.handler = handler;
+		this.metrics = metrics;
+		this.permits = new Semaphore(Math.max(1, handler.getMaxInFlight()));
+	}
+
+	/**
+	 * Starts publishing data, waiting while the maximum of in-flight publish
+	 * calls is reached.
+	 * 
+	 * @param data
+	 *            data to be published
+	 * @throws PublishException
+	 *             a previous publish call has failed
+	 * @throws InterruptedException
+	 *             thread interrupted while waiting
+	 */
+	void publish(Data data) throws PublishException, InterruptedException {
+
+		checkFailure();
+		permits.acquire();
+		int rows = data.size();
+		long bytes = Metrics.estimateBytes(data);
+		long start = System.nanoTime();
+		CompletableFuture<Void> future;
+		try {
+			future = handler.publishAsync(data);
+
+		} catch (RuntimeException e) {
+			permits.release();
+			throw new PublishException("publish failure", e);
+		}
+		pending.add(future.whenComplete((v, t) -> {
+			if (t != null && failure == null)
+				failure = t;
+			if (t == null) {
+				metrics.record(Stage.PUBLISH, start);
+				metrics.published(rows, bytes);
+			}
+			permits.release();
+		}));
+	}
+
+	/**
+	 * Collects publish calls started since the last call to this method.
+	 * 
+	 * @return a future completed when all of them are completed
+	 */
+	CompletableFuture<Void> drain() {
+
+		CompletableFuture<?>[] futures = pending.toArray(new CompletableFuture<?>[pending.size()]);
+		pending = new ArrayList<>();
+		return CompletableFuture.allOf(futures);
+	}
+
+	/**
+	 * Waits for a future returned by {@link #drain()}.
+	 * 
+	 * @param future
+	 *            future to wait for
+	 * @throws PublishException
+	 *             any publish call has failed
+	 * @throws InterruptedException
+	 *             thread interrupted while waiting
+	 */
+	static void await(CompletableFuture<Void> future) throws PublishException, InterruptedException {
+
+		try {
+			future.get();
+
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof PublishException)
+				throw (PublishException) cause;
+			throw new PublishException("publish failure", cause);
+		}
+	}
+
+	private void checkFailure() throws PublishException {
+
+		Throwable t = failure;
+		if (t instanceof PublishException)
+			throw (PublishException) t;
+		if (t != null)
+			throw new PublishException("publish failure", t);
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.dsf.utils.sql.DBUtils;
+
+/**
+ * Removes captured rows from a journal table ({@link JournalStrategy#DELETE}
+ * strategy). Rows are identified by the journal's key columns and removed in
+ * chunks of {@link JournalHandler#getCleanupChunkSize()} rows, one statement
+ * and one transaction per chunk:
+ * 
+ * <pre>
+ * delete from j$test where (key1=? and key2=?) or (key1=? and key2=?) ...
+ * </pre>
+ * 
+ * A single key column is removed with an <code>in (?,?,...)</code> clause.
+ * 
+ * @author fabio de santi
+ */
+class JournalCleaner {
+
+	private static final Logger logger = LogManager.getLogger(JournalCleaner.class.getName());
+
+	private final JournalHandler handler;
+	private final String logPrefix;
+	private List<String> keyColumns = null;
+
+	/**
+	 * 
+	 * @param handler
+	 *            journal's handler
+	 * @param logPrefix
+	 *            prefix for log messages
+	 */
+	JournalCleaner(JournalHandler handler, String logPrefix) {
+		this.handler = handler;
+		this.logPrefix = logPrefix;
+	}
+
+	/**
+	 * Removes journal rows.
+	 * 
+	 * @param conn
+	 *            database connection
+	 * @param journalColumns
+	 *            journal table's columns (lower case)
+	 * @param rows
+	 *            captured journal rows
+	 * @return number of removed rows
+	 * @throws SQLException
+	 */
+	int delete(Connection conn, List<String> journalColumns, List<Map<String, Object>> rows) throws SQLException {
+
+		if (rows.isEmpty())
+			return 0;
+
+		List<String> keys = getKeyColumns(conn, journalColumns);
+		int chunkSize = Math.max(1, Math.min(handler.getCleanupChunkSize(), rows.size()));
+		int removed = 0;
+		boolean autoCommit = conn.getAutoCommit();
+		PreparedStatement ps = null;
+		PreparedStatement psRemainder = null;
+		try {
+			conn.setAutoCommit(false);
+			ps = conn.prepareStatement(getDeleteStatement(keys, chunkSize));
+			for (int i = 0; i < rows.size(); i += chunkSize) {
+				List<Map<String, Object>> chunk = rows.subList(i, Math.min(i + chunkSize, rows.size()));
+				PreparedStatement stmt = ps;
+				if (chunk.size() < chunkSize) {
+					psRemainder = conn.prepareStatement(getDeleteStatement(keys, chunk.size()));
+					stmt = psRemainder;
+				}
+				int k = 1;
+				for (Map<String, Object> row : chunk) {
+					for (String key : keys) {
+						stmt.setObject(k++, row.get(key));
+					}
+				}
+				removed += stmt.executeUpdate();
+				conn.commit();
+			}
+
+		} catch (SQLException e) {
+			rollback(conn);
+			throw e;
+
+		} finally {
+			DBUtils.close(psRemainder);
+			DBUtils.close(ps);
+			conn.setAutoCommit(autoCommit);
+		}
+		return removed;
+	}
+
+	private void rollback(Connection conn) {
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			logger.warn(logPrefix + "journal cleanup rollback failed", e);
+		}
+	}
+
+	/**
+	 * Builds a delete statement for a number of journal rows.
+	 * 
+	 * @param keys
+	 *            key column names
+	 * @param rows
+	 *            number of rows
+	 * @return delete statement
+	 */
+	String getDeleteStatement(List<String> keys, int rows) {
+
+		StringBuilder sb = new StringBuilder("delete from ").append(handler.getJournalTable()).append(" where ");
+		if (keys.size() == 1) {
+			sb.append(keys.get(0)).append(" in (");
+			for (int i = 0; i < rows; i++) {
+				sb.append(i > 0 ? ",?" : "?");
+			}
+			return sb.append(')').toString();
+		}
+		for (int i = 0; i < rows; i++) {
+			sb.append(i > 0 ? " or (" : "(");
+			for (int j = 0; j < keys.size(); j++) {
+				sb.append(j > 0 ? " and " : "").append(keys.get(j)).append("=?");
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Resolves journal's key columns: declared by the handler, journal table's
+	 * primary key or all journal columns, in this order.
+	 * 
+	 * @param conn
+	 *            database connection
+	 * @param journalColumns
+	 *            journal table's columns (lower case)
+	 * @return key column names (lower case)
+	 * @throws SQLException
+	 */
+	List<String> getKeyColumns(Connection conn, List<String> journalColumns) throws SQLException {
+
+		if (keyColumns == null) {
+			List<String> keys = new ArrayList<>();
+			String[] declared = handler.getJournalKeyColumns();
+			if (declared != null && declared.length > 0) {
+				for (String col : declared) {
+					keys.add(col.trim().toLowerCase());
+				}
+			} else {
+				keys = getPrimaryKey(conn);
+			}
+
+			if (keys.isEmpty() || !journalColumns.containsAll(keys)) {
+				if (!keys.isEmpty())
+					logger.warn(logPrefix + "journal key " + keys + " not found in " + handler.getJournalTable()
+							+ " columns " + journalColumns);
+				keys = journalColumns;
+			}
+			if (logger.isDebugEnabled())
+				logger.debug(logPrefix + "journal " + handler.getJournalTable() + " key columns: " + keys);
+			keyColumns = keys;
+		}
+		return keyColumns;
+	}
+
+	private List<String> getPrimaryKey(Connection conn) throws SQLException {
+
+		String table = handler.getJournalTable();
+		String schema = null;
+		int dot = table.lastIndexOf('.');
+		if (dot > 0) {
+			schema = table.substring(0, dot);
+			table = table.substring(dot + 1);
+		}
+
+		DatabaseMetaData metaData = conn.getMetaData();
+		// unquoted identifiers may be stored in upper or lower case
+		String[][] names = { { schema, table },
+				{ schema == null ? null : schema.toUpperCase(), table.toUpperCase() },
+				{ schema == null ? null : schema.toLowerCase(), table.toLowerCase() } };
+		for (String[] name : names) {
+			Map<Short, String> pk = new TreeMap<>();
+			ResultSet rs = null;
+			try {
+				rs = metaData.getPrimaryKeys(null, name[0], name[1]);
+				while (rs.next()) {
+					pk.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME").toLowerCase());
+				}
+			} finally {
+				DBUtils.close(rs);
+			}
+			if (!pk.isEmpty())
+				return new ArrayList<>(pk.values());
+		}
+		return new ArrayList<>();
+	}
+}
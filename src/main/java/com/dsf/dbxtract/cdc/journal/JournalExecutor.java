@@ -16,33 +16,44 @@
 
 package com.dsf.dbxtract.cdc.journal;
 
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
-import org.apache.commons.dbcp2.BasicDataSource;
-import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
-import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
 
 import com.dsf.dbxtract.cdc.App;
+import com.dsf.dbxtract.cdc.ColumnarData;
 import com.dsf.dbxtract.cdc.ConfigurationException;
+import com.dsf.dbxtract.cdc.ConnectionPools;
 import com.dsf.dbxtract.cdc.Data;
+import com.dsf.dbxtract.cdc.DataColumnMatchException;
 import com.dsf.dbxtract.cdc.PublishException;
 import com.dsf.dbxtract.cdc.Source;
+import com.dsf.dbxtract.cdc.mon.HandlerMetrics;
+import com.dsf.dbxtract.cdc.mon.Metrics;
+import com.dsf.dbxtract.cdc.mon.Stage;
 import com.dsf.dbxtract.cdc.mon.Statistics;
 import com.dsf.utils.sql.DBUtils;
 import com.dsf.utils.sql.NamedParameterStatement;
@@ -57,52 +68,102 @@ public class JournalExecutor implements Runnable {
 
 	private static final Logger logger = LogManager.getLogger(JournalExecutor.class.getName());
 
-	private Map<Source, BasicDataSource> dataSources = new HashMap<>();
+	private static final Pattern PARTITION_PARAM = Pattern.compile(":partition\\b");
+
 	private Statistics statistics = null;
-	private String zookeeper;
+	private CuratorFramework client;
+	private InterProcessMutex lock;
 	private JournalHandler handler;
 	private Source source;
+	private int partition;
+	private int partitions;
 	private String agentName;
 	private String prefix;
+	private String partitionPrefix;
 	private String logPrefix;
 	private List<String> journalColumns = null;
+	private ExecutorService publishService = null;
+	private JournalCleaner cleaner;
+	private WindowCheckpoint checkpoint;
+	private HandlerMetrics metrics;
+	private volatile boolean enabled = true;
+	private volatile Runnable lockListener = null;
+	private final AtomicBoolean watchingLock = new AtomicBoolean(false);
 
 	/**
 	 * @param agentName
 	 *            cdc agent's assigned name
-	 * @param zookeeper
-	 *            connection string to ZooKeeper server
+	 * @param client
+	 *            started ZooKeeper client, shared by all executors of the agent
 	 * @param handler
 	 *            {@link JournalHandler}
 	 * @param source
 	 *            {@link Source}
 	 */
-	public JournalExecutor(String agentName, String zookeeper, JournalHandler handler, Source source) {
-		logPrefix = agentName + " :: ";
+	public JournalExecutor(String agentName, CuratorFramework client, JournalHandler handler, Source source) {
+		this(agentName, client, handler, source, 0);
+	}
+
+	/**
+	 * Creates the executor of a journal partition (see
+	 * {@link JournalHandler#getPartitions()}).
+	 * 
+	 * @param agentName
+	 *            cdc agent's assigned name
+	 * @param client
+	 *            started ZooKeeper client, shared by all executors of the agent
+	 * @param handler
+	 *            {@link JournalHandler}
+	 * @param source
+	 *            {@link Source}
+	 * @param partition
+	 *            journal partition, from 0 to partitions - 1
+	 */
+	public JournalExecutor(String agentName, CuratorFramework client, JournalHandler handler, Source source,
+			int partition) {
+		this.partitions = Math.max(1, handler.getPartitions());
+		if (partition < 0 || partition >= partitions)
+			throw new IllegalArgumentException("partition must be between 0 and " + (partitions - 1));
+		if (partitions > 1 && (handler.getPartitionKey() == null || handler.getPartitionKey().trim().isEmpty()))
+			throw new IllegalArgumentException("a partitioned journal requires a partition key: " + handler);
+		this.partition = partition;
+		logPrefix = partitions > 1 ? agentName + " :: p" + partition + " :: " : agentName + " :: ";
 		if (logger.isDebugEnabled())
 			logger.debug(logPrefix + "Creating executor for " + handler + " and " + source);
 		this.agentName = agentName;
-		this.zookeeper = zookeeper;
+		this.client = client;
 		this.handler = handler;
 		this.source = source;
-		BasicDataSource ds = dataSources.get(source);
-		if (ds == null) {
-			if (logger.isDebugEnabled())
-				logger.debug(agentName + " :: setting up a connection pool for " + source.toString());
-			ds = new BasicDataSource();
-			ds.setDriverClassName(source.getDriver());
-			ds.setUsername(source.getUser());
-			ds.setPassword(source.getPassword());
-			ds.setUrl(source.getConnection());
-			dataSources.put(source, ds);
-		}
+		this.lock = new InterProcessMutex(client, getPartitionPrefix() + "/lock");
+		this.cleaner = new JournalCleaner(handler, logPrefix);
+		// a journal that becomes partitioned resumes from its last window_id
+		this.checkpoint = new WindowCheckpoint(client, getPartitionPrefix() + "/lastWindowId",
+				partitions > 1 ? getPrefix() + "/lastWindowId" : null, handler);
+
+		this.statistics = Statistics.getInstance();
+		this.metrics = Metrics.getInstance().getHandler(handler.getClass().getName());
+
+		if (handler.getJoinQuery() != null && !JournalStrategy.WINDOW.equals(handler.getStrategy()))
+			logger.warn(logPrefix + "join query is only supported by WINDOW strategy and will be ignored for "
+					+ handler);
+		if (handler.getPipelineDepth() > 0 && !JournalStrategy.WINDOW.equals(handler.getStrategy()))
+			logger.warn(logPrefix + "pipelined capture is only supported by WINDOW strategy and will be ignored for "
+					+ handler);
+		if (partitions > 1 && handler.getJoinQuery() != null && !isPartitionedJoin())
+			logger.warn(logPrefix + "join query doesn't filter by :partition and will be ignored for " + handler);
+	}
 
-		if (statistics == null)
-			statistics = new Statistics();
+	private boolean isJoinCapture() {
+		return handler.getJoinQuery() != null && JournalStrategy.WINDOW.equals(handler.getStrategy())
+				&& (partitions == 1 || isPartitionedJoin());
+	}
+
+	private boolean isPartitionedJoin() {
+		return PARTITION_PARAM.matcher(handler.getJoinQuery()).find();
 	}
 
 	private Connection getConnection() throws SQLException {
-		return dataSources.get(source).getConnection();
+		return ConnectionPools.getInstance().getConnection(source);
 	}
 
 	private String getPrefix() {
@@ -113,56 +174,56 @@ public class JournalExecutor implements Runnable {
 		return prefix;
 	}
 
-	private Long getLastWindowId(CuratorFramework client) throws ConfigurationException {
-
-		try {
-			byte[] b = client.getData().forPath(getPrefix() + "/lastWindowId");
-			if (b == null)
-				return 0L;
-
-			return Long.parseLong(new String(b));
-
-		} catch (NoNodeException nne) {
-			logger.warn(nne);
-			return 0L;
-
-		} catch (Exception e) {
-			throw new ConfigurationException("Failed to access zk entry", e);
+	/**
+	 * 
+	 * @return zookeeper path of the executor's lock and last window_id
+	 */
+	private String getPartitionPrefix() {
+		if (partitionPrefix == null) {
+			partitionPrefix = partitions > 1 ? getPrefix() + "/p" + partition : getPrefix();
 		}
+		return partitionPrefix;
 	}
 
 	/**
 	 * Gets reference data from journal table.
 	 * 
-	 * @param client
 	 * @param conn
+	 * @param fromWindowId
+	 *            last captured window_id (WINDOW strategy) or null
 	 * @return a Map list with column names and values
 	 * @throws SQLException
-	 * @throws ConfigurationException
 	 */
-	private List<Map<String, Object>> getJournalKeys(CuratorFramework client, Connection conn)
-			throws SQLException, ConfigurationException {
+	private List<Map<String, Object>> getJournalKeys(Connection conn, Long fromWindowId) throws SQLException {
 
 		List<Map<String, Object>> result = new ArrayList<>();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
+		long start = System.nanoTime();
 		try {
 			// Obtem os dados do journal
 			if (logger.isDebugEnabled())
 				logger.debug(logPrefix + "getting journalized data");
 			StringBuilder baseQuery = new StringBuilder("select * from ").append(handler.getJournalTable());
-			if (JournalStrategy.WINDOW.equals(handler.getStrategy())) {
-				Long lastWindowId = getLastWindowId(client);
-				baseQuery.append(" where window_id > ?");
-				ps = conn.prepareStatement(baseQuery.toString());
-				ps.setLong(1, lastWindowId);
-			} else {
-				ps = conn.prepareStatement(baseQuery.toString());
+			String where = " where ";
+			if (fromWindowId != null) {
+				baseQuery.append(where).append("window_id > ?");
+				where = " and ";
 			}
+			// null and negative keys must belong to a partition too
+			if (partitions > 1)
+				baseQuery.append(where).append("mod(abs(coalesce(").append(handler.getPartitionKey())
+						.append(", 0)), ").append(partitions).append(") = ").append(partition);
+			if (fromWindowId != null)
+				baseQuery.append(" order by window_id");
+			ps = conn.prepareStatement(baseQuery.toString());
+			if (fromWindowId != null)
+				ps.setLong(1, fromWindowId);
 			ps.setFetchSize(handler.getBatchSize());
 			ps.setMaxRows(handler.getBatchSize());
 			rs = ps.executeQuery();
 			copyResultsetToMap(rs, result);
+			metrics.record(Stage.JOURNAL, start);
 
 		} finally {
 			DBUtils.close(rs);
@@ -171,7 +232,7 @@ public class JournalExecutor implements Runnable {
 		return result;
 	}
 
-	private void copyResultsetToMap(ResultSet rs, List<Map<String, Object>> result) throws SQLException {
+	void copyResultsetToMap(ResultSet rs, List<Map<String, Object>> result) throws SQLException {
 
 		if (rs == null)
 			throw new SQLException("result is null");
@@ -198,13 +259,14 @@ public class JournalExecutor implements Runnable {
 	 * 
 	 * @param conn
 	 * @param rows
+	 * @param sink
+	 *            destination of retrieved data
 	 * @throws SQLException
-	 * @throws IOException
 	 * @throws PublishException
-	 * @throws Exception
+	 * @throws InterruptedException
 	 */
-	private void selectAndPublish(Connection conn, List<Map<String, Object>> rows)
-			throws SQLException, IOException, PublishException {
+	private void selectAndPublish(Connection conn, List<Map<String, Object>> rows, DataSink sink)
+			throws SQLException, PublishException, InterruptedException {
 
 		if (rows.isEmpty()) {
 			if (logger.isDebugEnabled())
@@ -216,48 +278,200 @@ public class JournalExecutor implements Runnable {
 			logger.debug(logPrefix + "getting data");
 		
 		String query = handler.getTargetQuery();
+		int chunkSize = Math.max(1, handler.getLookupChunkSize());
 		NamedParameterStatement ps = null;
+		NamedParameterStatement psRemainder = null;
 		ResultSet rs = null;
+		long start = System.nanoTime();
 		try {
-			Data data = null;
-			ps = new NamedParameterStatement(conn, query);
-			for (Map<String, Object> keys : rows) {
-				fillParameters(keys, query, ps);
+			DataStream data = null;
+			int remainder = rows.size() % chunkSize;
+			for (int offset = 0; offset < rows.size(); offset += chunkSize) {
+				List<Map<String, Object>> chunk = rows.subList(offset, Math.min(offset + chunkSize, rows.size()));
+				NamedParameterStatement stmt;
+				if (chunk.size() == chunkSize) {
+					if (ps == null)
+						ps = prepareLookup(conn, query, chunkSize);
+					stmt = ps;
+				} else {
+					if (psRemainder == null)
+						psRemainder = prepareLookup(conn, query, remainder);
+					stmt = psRemainder;
+				}
+				fillParameters(chunk, query, stmt);
 				DBUtils.close(rs);
 
-				rs = ps.executeQuery();
+				rs = stmt.executeQuery();
 				if (data == null) {
-					String[] colNames = getColumnNamesFromResultSet(rs);
-					data = new Data(colNames);
+					data = new DataStream(rs.getMetaData(), sink);
 				}
 				while (rs.next()) {
 					data.append(rs);
 				}
 			}
-			handler.publish(data);
+			data.close();
+			recordLookup(start, data);
 
 		} finally {
 			DBUtils.close(rs);
 			DBUtils.close(ps);
+			DBUtils.close(psRemainder);
 		}
 	}
 
 	/**
-	 * Retrieve column names from a resultset
+	 * Records data retrieval latency, excluding time spent handing data to the
+	 * publishing stage.
+	 */
+	private void recordLookup(long start, DataStream data) {
+		metrics.getLatency(Stage.LOOKUP).record((System.nanoTime() - start - data.getSinkNanos()) / 1000L);
+	}
+
+	/**
+	 * Retrieves changed data with the handler's join query (journal joined to
+	 * the captured table) and publishes it. A batch always ends at a window
+	 * boundary: rows of a window cut by the batch size are held back for the
+	 * next batch, and a single window with more rows than the batch size is
+	 * captured whole.
 	 * 
-	 * @param rs
-	 *            query result set
-	 * @return array of column names
+	 * @param conn
+	 * @param fromWindowId
+	 *            last captured window_id
+	 * @param sink
+	 *            destination of retrieved data
+	 * @return captured batch
 	 * @throws SQLException
+	 * @throws PublishException
+	 * @throws InterruptedException
 	 */
-	private String[] getColumnNamesFromResultSet(ResultSet rs) throws SQLException {
+	private Batch joinAndPublish(Connection conn, Long fromWindowId, DataSink sink)
+			throws SQLException, PublishException, InterruptedException {
 
-		int cols = rs.getMetaData().getColumnCount();
-		String[] colNames = new String[cols];
-		for (int i = 0; i < cols; i++) {
-			colNames[i] = rs.getMetaData().getColumnLabel(i + 1);
+		int limit = handler.getBatchSize();
+		Batch batch;
+		while ((batch = joinAndPublish(conn, fromWindowId, sink, limit)) == null) {
+			logger.warn(logPrefix + "a window after window_id " + fromWindowId + " has more than " + limit
+					+ " rows, reading it whole");
+			limit = limit > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE - 1 : limit * 2;
 		}
-		return colNames;
+		return batch;
+	}
+
+	/**
+	 * Reads up to a number of rows of the join query.
+	 * 
+	 * @param conn
+	 * @param fromWindowId
+	 *            last captured window_id
+	 * @param sink
+	 *            destination of retrieved data
+	 * @param limit
+	 *            maximum rows
+	 * @return captured batch, or null (nothing published) if the first window
+	 *         has more rows than the limit
+	 * @throws SQLException
+	 * @throws PublishException
+	 * @throws InterruptedException
+	 */
+	private Batch joinAndPublish(Connection conn, Long fromWindowId, DataSink sink, int limit)
+			throws SQLException, PublishException, InterruptedException {
+
+		if (logger.isDebugEnabled())
+			logger.debug(logPrefix + "getting joined data");
+
+		NamedParameterStatement ps = null;
+		ResultSet rs = null;
+		long start = System.nanoTime();
+		try {
+			ps = new NamedParameterStatement(conn, handler.getJoinQuery());
+			ps.setLong("window_id", fromWindowId);
+			if (partitions > 1) {
+				ps.setInt("partition", partition);
+				if (handler.getJoinQuery().contains(":partitions"))
+					ps.setInt("partitions", partitions);
+			}
+			ps.getStatement().setFetchSize(Math.min(limit, handler.getBatchSize()));
+			// one extra row tells whether the batch's last window is complete
+			ps.getStatement().setMaxRows(limit + 1);
+			rs = ps.executeQuery();
+
+			DataStream data = new DataStream(rs.getMetaData(), sink);
+			String[] colNames = data.getColumnNames();
+			int windowCol = -1;
+			for (int i = 0; i < colNames.length; i++) {
+				if ("window_id".equalsIgnoreCase(colNames[i]))
+					windowCol = i + 1;
+			}
+			if (windowCol < 0)
+				throw new SQLException("join query must return the journal's window_id column");
+
+			// rows of the last window are held until the window is complete
+			long heldWindowId = 0L;
+			long lastWindowId = 0L;
+			int count = 0;
+			boolean full = false;
+			boolean windowCut = false;
+			while (rs.next()) {
+				long windowId = rs.getLong(windowCol);
+				// window boundaries, and so the checkpoint, rely on the order
+				if (windowId < heldWindowId)
+					throw new SQLException("join query must be ordered by window_id: " + windowId + " after "
+							+ heldWindowId);
+				if (windowId != heldWindowId && data.getHeld() > 0) {
+					count += data.release();
+					lastWindowId = heldWindowId;
+				}
+				if (count + data.getHeld() == limit) {
+					full = true;
+					windowCut = data.getHeld() > 0;
+					break;
+				}
+				heldWindowId = windowId;
+				data.hold(rs);
+			}
+			if (windowCut) {
+				if (count == 0)
+					return null;
+				data.discard();
+			} else if (data.getHeld() > 0) {
+				count += data.release();
+				lastWindowId = heldWindowId;
+			}
+
+			if (count == 0) {
+				if (logger.isDebugEnabled())
+					logger.debug(logPrefix + "nothing to load");
+				recordLookup(start, data);
+				return new Batch(0, null, false);
+			}
+			data.close();
+			recordLookup(start, data);
+			return new Batch(count, lastWindowId, full);
+
+		} finally {
+			DBUtils.close(rs);
+			DBUtils.close(ps);
+		}
+	}
+
+	/**
+	 * Prepares the target query for a given number of journal rows.
+	 * 
+	 * @param conn
+	 * @param query
+	 *            handler's target query
+	 * @param keys
+	 *            number of journal rows per execution
+	 * @return a named parameter statement
+	 * @throws SQLException
+	 */
+	private NamedParameterStatement prepareLookup(Connection conn, String query, int keys) throws SQLException {
+
+		if (logger.isTraceEnabled())
+			logger.trace(logPrefix + "preparing lookup for " + keys + " keys");
+		if (keys == 1)
+			return new NamedParameterStatement(conn, query);
+		return new NamedParameterStatement(conn, NamedParameterStatement.unionAll(query, keys));
 	}
 
 	/**
@@ -271,7 +485,7 @@ public class JournalExecutor implements Runnable {
 	 *            a named parameter statement
 	 * @throws SQLException
 	 */
-	private void fillParameters(Map<String, Object> map, String query, NamedParameterStatement ps) throws SQLException {
+	void fillParameters(Map<String, Object> map, String query, NamedParameterStatement ps) throws SQLException {
 
 		for (Map.Entry<String, Object> e : map.entrySet()) {
 			if (query.contains(":" + e.getKey())) {
@@ -280,6 +494,35 @@ public class JournalExecutor implements Runnable {
 		}
 	}
 
+	/**
+	 * Fill named parameter in a query from a list of Map&lt;ColumnName and
+	 * Value&gt;. Each map is bound to its own copy of the query (see
+	 * {@link NamedParameterStatement#unionAll(String, int)}).
+	 * 
+	 * @param keys
+	 *            parameters maps, one per journal row
+	 * @param query
+	 *            query statement
+	 * @param ps
+	 *            a named parameter statement
+	 * @throws SQLException
+	 */
+	void fillParameters(List<Map<String, Object>> keys, String query, NamedParameterStatement ps)
+			throws SQLException {
+
+		if (keys.size() == 1) {
+			fillParameters(keys.get(0), query, ps);
+			return;
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			for (Map.Entry<String, Object> e : keys.get(i).entrySet()) {
+				if (query.contains(":" + e.getKey())) {
+					ps.setObject(NamedParameterStatement.getCopyParamName(e.getKey(), i), e.getValue());
+				}
+			}
+		}
+	}
+
 	/**
 	 * Removes imported references from journal table.
 	 * 
@@ -298,37 +541,28 @@ public class JournalExecutor implements Runnable {
 		if (logger.isDebugEnabled())
 			logger.debug(logPrefix + "cleaning journal " + handler.getJournalTable());
 		
-		StringBuilder sb = new StringBuilder("delete from " + handler.getJournalTable() + " where ");
-		for (int i = 0; i < journalColumns.size(); i++) {
-			sb.append(i > 0 ? " and " : "").append(journalColumns.get(i)).append("=?");
-		}
-		PreparedStatement ps = null;
-		try {
-			ps = conn.prepareStatement(sb.toString());
-			for (Map<String, Object> keys : rows) {
-				for (int i = 0; i < journalColumns.size(); i++) {
-					ps.setObject(i + 1, keys.get(journalColumns.get(i)));
-				}
-				ps.addBatch();
-			}
-			ps.executeBatch();
-			logger.info(logPrefix + rows.size() + " rows removed (" + handler.getJournalTable() + ")");
-
-		} finally {
-			DBUtils.close(ps);
-		}
+		long start = System.nanoTime();
+		int removed = cleaner.delete(conn, journalColumns, rows);
+		metrics.record(Stage.CLEANUP, start);
+		logger.info(logPrefix + removed + " rows removed (" + handler.getJournalTable() + ")");
 	}
 
 	/**
 	 * Memorizes the last imported window_id from journal table
 	 * 
 	 * @param rows
+	 * @throws ConfigurationException
 	 */
-	private void markLastLoaded(CuratorFramework client, List<Map<String, Object>> rows) {
+	private void markLastLoaded(List<Map<String, Object>> rows) throws ConfigurationException {
 
 		if (rows == null || rows.isEmpty())
 			return;
 
+		markLastLoaded(getMaxWindowId(rows));
+	}
+
+	private static Long getMaxWindowId(List<Map<String, Object>> rows) {
+
 		Long lastWindowId = 0L;
 		for (Map<String, Object> row : rows) {
 			Number windowId = (Number) row.get("window_id");
@@ -336,18 +570,327 @@ public class JournalExecutor implements Runnable {
 				lastWindowId = windowId.longValue();
 			}
 		}
+		return lastWindowId;
+	}
+
+	/**
+	 * Memorizes the last imported window_id
+	 * 
+	 * @param lastWindowId
+	 * @throws ConfigurationException
+	 */
+	private void markLastLoaded(Long lastWindowId) throws ConfigurationException {
+		long start = System.nanoTime();
+		checkpoint.update(lastWindowId);
+		metrics.record(Stage.CHECKPOINT, start);
+		metrics.setLastWindowId(getTaskId(), lastWindowId);
+	}
+
+	/**
+	 * Captures a single batch: retrieves journal and changed data, publishes
+	 * it and updates the journal.
+	 * 
+	 * @param conn
+	 * @throws Exception
+	 */
+	private Batch capture(Connection conn) throws Exception {
+
+		InFlightPublisher publisher = new InFlightPublisher(handler, metrics);
+		if (isJoinCapture()) {
+			// Retrieve changed data joined to journal and publish it
+			Batch batch = joinAndPublish(conn, checkpoint.get(), publisher::publish);
+			InFlightPublisher.await(publisher.drain());
+
+			// Update last loaded window_id
+			if (batch.lastWindowId != null)
+				markLastLoaded(batch.lastWindowId);
+
+			statistics.update(handler.getClass().getName(), batch.rows);
+			return batch;
+		}
+
+		// Get journal data
+		boolean window = JournalStrategy.WINDOW.equals(handler.getStrategy());
+		List<Map<String, Object>> rows = getJournalKeys(conn, window ? checkpoint.get() : null);
+
+		// Retrieve changed data and publish it
+		selectAndPublish(conn, rows, publisher::publish);
+		InFlightPublisher.await(publisher.drain());
+
+		if (window) {
+			// Update last loaded window_id
+			markLastLoaded(rows);
+
+		} else {
+			// Remove from journal imported & published data
+			deleteFromJournal(conn, rows);
+		}
+
+		statistics.update(handler.getClass().getName(), rows.size());
+		return new Batch(rows.size(), null, rows.size() >= handler.getBatchSize());
+	}
+
+	/**
+	 * Captures consecutive batches, while holding the lock, until the journal
+	 * returns a partial batch or the drain budget is exhausted (see
+	 * {@link JournalHandler#getDrainTimeBudget()}). Without a drain budget a
+	 * single batch is captured.
+	 * 
+	 * @param conn
+	 * @return the last captured batch, with the row count of all batches
+	 * @throws Exception
+	 */
+	private Batch drain(Connection conn) throws Exception {
+
+		long start = System.currentTimeMillis();
+		int total = 0;
+		int batches = 0;
+		Batch batch;
+		do {
+			batch = capture(conn);
+			total += batch.rows;
+			batches++;
+
+		} while (batch.full && isDraining() && isWithinBudget(start, total));
+
+		if (logger.isDebugEnabled() && batches > 1)
+			logger.debug(logPrefix + batches + " batches captured");
+
+		return new Batch(total, batch.lastWindowId, batch.full);
+	}
+
+	private boolean isDraining() {
+		return handler.getDrainTimeBudget() > 0 || handler.getDrainRowBudget() > 0;
+	}
 
-		String k = getPrefix() + "/lastWindowId";
-		String s = lastWindowId.toString();
+	private boolean isWithinBudget(long start, int rows) {
+
+		long timeBudget = handler.getDrainTimeBudget();
+		int rowBudget = handler.getDrainRowBudget();
+		return (timeBudget <= 0 || System.currentTimeMillis() - start < timeBudget)
+				&& (rowBudget <= 0 || rows < rowBudget);
+	}
+
+	/**
+	 * Captures consecutive batches, like {@link #drain(Connection)}, while the
+	 * journal returns full batches and the drain budget is not exhausted.
+	 * Without a drain budget a single batch is captured. Retrieved data is
+	 * handed to a {@link PublishPipeline}, so the next batch is read from the
+	 * database while the previous one is being published. Each batch's
+	 * window_id is memorized only after all its publish calls were completed,
+	 * in batch order.
+	 * 
+	 * @param conn
+	 * @return the last captured batch, with the row count of all batches
+	 * @throws Exception
+	 */
+	private Batch capturePipelined(Connection conn) throws Exception {
+
+		PublishPipeline pipeline = new PublishPipeline(getPublishService(), handler.getPipelineDepth());
+		InFlightPublisher publisher = new InFlightPublisher(handler, metrics);
+		DataSink sink = data -> pipeline.submit(() -> publisher.publish(data));
+		AtomicReference<CompletableFuture<Void>> commits = new AtomicReference<>(
+				CompletableFuture.completedFuture(null));
+		String name = handler.getClass().getName();
+		int total = 0;
+		Batch batch;
 		try {
-			if (client.checkExists().forPath(k) == null)
-				client.create().withMode(CreateMode.PERSISTENT).forPath(k);
+			long start = System.currentTimeMillis();
+			Long windowId = checkpoint.get();
+			int batches = 0;
+			do {
+				if (isJoinCapture()) {
+					batch = joinAndPublish(conn, windowId, sink);
+				} else {
+					List<Map<String, Object>> rows = getJournalKeys(conn, windowId);
+					selectAndPublish(conn, rows, sink);
+					batch = new Batch(rows.size(), rows.isEmpty() ? null : getMaxWindowId(rows),
+							rows.size() >= handler.getBatchSize());
+				}
+
+				if (batch.lastWindowId != null) {
+					final Batch captured = batch;
+					pipeline.submit(() -> {
+						CompletableFuture<Void> published = publisher.drain();
+						commits.set(commits.get().thenCombine(published, (a, b) -> b).thenRun(() -> {
+							try {
+								markLastLoaded(captured.lastWindowId);
+							} catch (ConfigurationException e) {
+								throw new CompletionException(e);
+							}
+							statistics.update(name, captured.rows);
+						}));
+					});
+					windowId = batch.lastWindowId;
 
-			client.setData().forPath(k, s.getBytes());
+				} else if (batches == 0) {
+					statistics.update(name, 0);
+				}
+				batches++;
+				total += batch.rows;
+
+			} while (batch.full && isDraining() && isWithinBudget(start, total));
+
+			if (logger.isDebugEnabled())
+				logger.debug(logPrefix + batches + " batches captured");
 
 		} catch (Exception e) {
-			logger.error("failed to update last window_id", e);
+			// published batches are still memorized before leaving
+			try {
+				pipeline.close(commits::get);
+			} catch (Exception pe) {
+				e.addSuppressed(pe);
+			}
+			throw e;
+		}
+		pipeline.close(commits::get);
+		return new Batch(total, batch.lastWindowId, batch.full);
+	}
+
+	private boolean isPipelined() {
+		return handler.getPipelineDepth() > 0 && JournalStrategy.WINDOW.equals(handler.getStrategy());
+	}
+
+	private synchronized ExecutorService getPublishService() {
+
+		if (publishService == null) {
+			publishService = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "dbxtract-publisher-" + handler.getJournalTable()
+						+ (partitions > 1 ? "-p" + partition : ""));
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return publishService;
+	}
+
+	/**
+	 * Releases executor's resources (like the publishing stage thread).
+	 */
+	public synchronized void close() {
+
+		if (publishService != null) {
+			publishService.shutdown();
+			publishService = null;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the executor's {@link JournalHandler}
+	 */
+	public JournalHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * 
+	 * @return the executor's data {@link Source}
+	 */
+	public Source getSource() {
+		return source;
+	}
+
+	/**
+	 * 
+	 * @return the executor's journal partition (0 when not partitioned)
+	 */
+	public int getPartition() {
+		return partition;
+	}
+
+	/**
+	 * 
+	 * @return identifies the executor's journal (and partition) among all
+	 *         agents: <code>source/journal</code> or
+	 *         <code>source/journal/p&lt;partition&gt;</code>
+	 */
+	public String getTaskId() {
+		return getPartitionPrefix().substring(App.BASEPREFIX.length() + 1);
+	}
+
+	/**
+	 * Sets a callback run when the lock, after a cycle has found it held by
+	 * another agent, may have been released (see {@link CaptureResult#LOCKED}).
+	 * It's called by a zookeeper thread and must not block.
+	 * 
+	 * @param listener
+	 *            callback, usually rescheduling the executor
+	 */
+	public void setLockListener(Runnable listener) {
+		this.lockListener = listener;
+	}
+
+	/**
+	 * Checks, without waiting, whether any agent holds or waits for the lock.
+	 * 
+	 * @return true if the lock is held
+	 * @throws Exception
+	 *             failed to access zookeeper
+	 */
+	private boolean isLockHeld() throws Exception {
+
+		try {
+			return !client.getChildren().forPath(getPartitionPrefix() + "/lock").isEmpty();
+		} catch (NoNodeException nne) {
+			return false;
+		}
+	}
+
+	/**
+	 * Leaves a watch on the lock's nodes, calling the lock listener as soon as
+	 * they change.
+	 * 
+	 * @throws Exception
+	 *             failed to access zookeeper
+	 */
+	private void watchLock() throws Exception {
+
+		// zookeeper watches are one-shot: a single watch is kept at a time
+		if (watchingLock.compareAndSet(false, true)) {
+			try {
+				client.getChildren().usingWatcher((Watcher) this::lockChanged)
+						.forPath(getPartitionPrefix() + "/lock");
+			} catch (Exception e) {
+				watchingLock.set(false);
+				throw e;
+			}
+		}
+	}
+
+	private void lockChanged(WatchedEvent event) {
+
+		if (event.getType() == Watcher.Event.EventType.None) {
+			// a disconnected session keeps its watches, any other state (like
+			// an expired session) drops them: the next cycle leaves a new one
+			KeeperState state = event.getState();
+			if (state == KeeperState.SyncConnected || state == KeeperState.Disconnected)
+				return;
 		}
+		watchingLock.set(false);
+		Runnable listener = lockListener;
+		if (listener != null)
+			listener.run();
+	}
+
+	/**
+	 * 
+	 * @return false if capture cycles are skipped
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables capture cycles. A disabled executor skips its cycles
+	 * without trying to acquire the lock, like when the journal was assigned to
+	 * another agent (see {@link com.dsf.dbxtract.cdc.ClusterAssignment}).
+	 * 
+	 * @param enabled
+	 *            true to capture data
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
 	}
 
 	/**
@@ -360,54 +903,79 @@ public class JournalExecutor implements Runnable {
 	 */
 	@Override
 	public void run() {
+		execute();
+	}
 
-		if (logger.isDebugEnabled())
-			logger.debug(agentName + " :: connecting to " + zookeeper);
-		RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
-		CuratorFramework client = CuratorFrameworkFactory.newClient(zookeeper, retryPolicy);
-		client.start();
+	/**
+	 * Runs a capture cycle (see {@link #run()}).
+	 * 
+	 * @return the cycle's {@link CaptureResult}
+	 */
+	public CaptureResult execute() {
+
+		if (!enabled) {
+			if (logger.isTraceEnabled())
+				logger.trace(logPrefix + getTaskId() + " is not assigned to this agent, skipping cycle");
+			return CaptureResult.SKIPPED;
+		}
+		if (!client.getZookeeperClient().isConnected()) {
+			if (logger.isDebugEnabled())
+				logger.debug(logPrefix + "not connected to zookeeper, skipping cycle");
+			return CaptureResult.SKIPPED;
+		}
 
 		// Uses the distributed lock recipe of ZooKeeper to avoid concurrency
 		Connection conn = null;
-		String lockPath = getPrefix() + "/lock";
-		InterProcessMutex lock = new InterProcessMutex(client, lockPath);
 		if (logger.isTraceEnabled())
-			logger.trace(logPrefix + "waiting lock from " + zookeeper + lockPath);
+			logger.trace(logPrefix + "trying lock from " + getPartitionPrefix() + "/lock");
 		boolean lockAcquired = false;
+		CaptureResult result = CaptureResult.SKIPPED;
+		long start = System.nanoTime();
 		try {
-			if (lock.acquire(5, TimeUnit.SECONDS)) {
+			// never waits for the lock: a held lock ends the cycle, which is
+			// rescheduled when the lock is released
+			if (isLockHeld() || !lock.acquire(0, TimeUnit.MILLISECONDS)) {
+				if (logger.isTraceEnabled())
+					logger.trace(logPrefix + getPartitionPrefix() + "/lock is held by another agent");
+				result = CaptureResult.LOCKED;
+				watchLock();
+
+			} else {
 				lockAcquired = true;
+				metrics.record(Stage.LOCK, start);
+				start = System.nanoTime();
 
 				if (logger.isTraceEnabled())
 					logger.trace(logPrefix + "get database connection");
 				
 				conn = getConnection();
 
-				// Get journal data
-				List<Map<String, Object>> rows = getJournalKeys(client, conn);
-
-				// Retrieve changed data and publish it
-				selectAndPublish(conn, rows);
-
-				if (JournalStrategy.WINDOW.equals(handler.getStrategy())) {
-					// Update last loaded window_id
-					markLastLoaded(client, rows);
-
-				} else {
-					// Remove from journal imported & published data
-					deleteFromJournal(conn, rows);
-				}
-
-				statistics.update(client, handler.getClass().getName(), rows.size());
+				if (JournalStrategy.WINDOW.equals(handler.getStrategy()))
+					checkpoint.load();
 
+				Batch batch = isPipelined() ? capturePipelined(conn) : drain(conn);
+				if (batch.full)
+					result = CaptureResult.FULL;
+				else
+					result = batch.rows == 0 ? CaptureResult.EMPTY : CaptureResult.PARTIAL;
 			}
 
 		} catch (Exception e) {
 			logger.error(agentName + " :: failure", e);
+			result = CaptureResult.FAILED;
 
 		} finally {
 			DBUtils.close(conn);
 			if (lockAcquired) {
+				// coalesced window_id must be written while lock is held
+				try {
+					checkpoint.flush();
+				} catch (ConfigurationException e) {
+					logger.error(logPrefix + "failed to update last window_id", e);
+					result = CaptureResult.FAILED;
+				}
+				metrics.record(Stage.CYCLE, start);
+				metrics.cycle(getTaskId(), result.name(), result == CaptureResult.FULL || result == CaptureResult.FAILED);
 				if (logger.isDebugEnabled())
 					logger.debug(agentName + " :: lock release");
 				try {
@@ -416,7 +984,143 @@ public class JournalExecutor implements Runnable {
 					logger.warn(logPrefix + "failed to release zk lock for ", e);
 				}
 			}
-			client.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Hands captured rows to the handler in chunks of
+	 * {@link JournalHandler#getPublishChunkSize()} rows while the result sets
+	 * are still being read, so only one chunk is kept in memory at a time.
+	 */
+	private class DataStream {
+
+		private final DataSink sink;
+		private final String[] columnNames;
+		private final int[] columnTypes;
+		private final int chunkSize;
+		private Data data;
+		private Data held = null;
+		private int published = 0;
+		private long sinkNanos = 0L;
+
+		DataStream(ResultSetMetaData metaData, DataSink sink) throws SQLException {
+			this.sink = sink;
+			this.columnNames = ColumnarData.getColumnLabels(metaData);
+			this.columnTypes = handler.isColumnar() ? ColumnarData.getColumnTypes(metaData) : null;
+			this.chunkSize = handler.getPublishChunkSize();
+			this.data = newData();
+		}
+
+		String[] getColumnNames() {
+			return columnNames;
+		}
+
+		private Data newData() {
+			return columnTypes == null ? new Data(columnNames) : new ColumnarData(columnNames, columnTypes);
+		}
+
+		void append(ResultSet rs) throws SQLException, PublishException, InterruptedException {
+			data.append(rs);
+			if (chunkSize > 0 && data.size() >= chunkSize)
+				flush();
+		}
+
+		/**
+		 * Keeps a row aside, not published until {@link #release()}.
+		 */
+		void hold(ResultSet rs) throws SQLException {
+			if (held == null)
+				held = newData();
+			held.append(rs);
+		}
+
+		int getHeld() {
+			return held == null ? 0 : held.size();
+		}
+
+		/**
+		 * Appends the held rows.
+		 * 
+		 * @return number of released rows
+		 */
+		int release() throws SQLException, PublishException, InterruptedException {
+			int n = getHeld();
+			if (n == 0)
+				return 0;
+			if (data.size() == 0 && (chunkSize <= 0 || n < chunkSize)) {
+				// no copy needed
+				Data d = data;
+				data = held;
+				held = d;
+			} else {
+				try {
+					for (Object[] row : held.getRows()) {
+						data.append(row);
+						if (chunkSize > 0 && data.size() >= chunkSize)
+							flush();
+					}
+				} catch (DataColumnMatchException e) {
+					throw new SQLException(e);
+				}
+				held = null;
+			}
+			return n;
+		}
+
+		/**
+		 * Drops the held rows.
+		 */
+		void discard() {
+			held = null;
+		}
+
+		/**
+		 * Publishes remaining rows. The handler is always called at least once
+		 * per batch, even if no row was found.
+		 */
+		void close() throws PublishException, InterruptedException {
+			if (data.size() > 0 || published == 0)
+				flush();
+		}
+
+		long getSinkNanos() {
+			return sinkNanos;
+		}
+
+		private void flush() throws PublishException, InterruptedException {
+			if (logger.isTraceEnabled())
+				logger.trace(logPrefix + "publishing " + data.size() + " rows");
+			long start = System.nanoTime();
+			sink.publish(data);
+			sinkNanos += System.nanoTime() - start;
+			published++;
+			data = newData();
+		}
+	}
+
+	/**
+	 * Destination of retrieved data: the handler itself or a publishing
+	 * pipeline.
+	 */
+	@FunctionalInterface
+	private interface DataSink {
+		void publish(Data data) throws PublishException, InterruptedException;
+	}
+
+	/**
+	 * Summary of a captured batch.
+	 */
+	private static class Batch {
+
+		private final int rows;
+		private final Long lastWindowId;
+		private final boolean full;
+
+		Batch(int rows, Long lastWindowId, boolean full) {
+			this.rows = rows;
+			this.lastWindowId = lastWindowId;
+			this.full = full;
 		}
 	}
 }
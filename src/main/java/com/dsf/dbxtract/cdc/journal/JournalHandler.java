@@ -16,6 +16,10 @@
 
 package com.dsf.dbxtract.cdc.journal;
 
+import java.util.concurrent.CompletableFuture;
+
+import com.dsf.dbxtract.cdc.AsyncPublisher;
+import com.dsf.dbxtract.cdc.ColumnarData;
 import com.dsf.dbxtract.cdc.Data;
 import com.dsf.dbxtract.cdc.PublishException;
 
@@ -50,6 +54,253 @@ public interface JournalHandler {
 	 */
 	public String getTargetQuery();
 
+	/**
+	 * <p>
+	 * Number of journal rows looked up by a single execution of the target
+	 * query. When greater than one, the target query is repeated once per
+	 * journal row and the copies are joined with <code>UNION ALL</code>, so a
+	 * whole chunk of keys is retrieved in one database round trip.
+	 * </p>
+	 * Default is 1 (one query per journal row).
+	 *
+	 * @return number of journal rows per target query execution
+	 */
+	public default int getLookupChunkSize() {
+		return 1;
+	}
+
+	/**
+	 * <p>
+	 * Columns that identify a journal row, used by the
+	 * {@link JournalStrategy#DELETE} strategy to remove captured rows. Column
+	 * names are case insensitive.
+	 * </p>
+	 * Default is <code>null</code>: the journal table's primary key, as
+	 * reported by the JDBC driver, or all journal columns when there is none.
+	 *
+	 * @return journal key columns or null
+	 */
+	public default String[] getJournalKeyColumns() {
+		return null;
+	}
+
+	/**
+	 * Maximum number of journal rows removed by a single statement and
+	 * transaction of the {@link JournalStrategy#DELETE} strategy, so the
+	 * journal table is never locked by a long transaction. Default is 500.
+	 *
+	 * @return journal rows per delete statement
+	 */
+	public default int getCleanupChunkSize() {
+		return 500;
+	}
+
+	/**
+	 * <p>
+	 * Optional query that joins the journal table to the captured table, so
+	 * changed data is retrieved by a single set-based statement instead of
+	 * reading the journal and querying each key. It's only used by the
+	 * {@link JournalStrategy#WINDOW} strategy: the query must return the
+	 * journal's <code>window_id</code> column, be ordered by it (cycles fail
+	 * otherwise) and receive the last captured window id as the named
+	 * parameter <code>:window_id</code>:
+	 * </p>
+	 * <code>select j.window_id, t.* from j$test j join test t on t.key1 =
+	 * j.key1 and t.key2 = j.key2 where j.window_id &gt; :window_id order by
+	 * j.window_id</code>
+	 * <p>
+	 * At most {@link #getBatchSize()} rows are retrieved per cycle and a batch
+	 * always ends at a window boundary: a window cut by the batch size is left
+	 * to the next cycle, and a single window with more rows than the batch size
+	 * is retrieved whole. Default is <code>null</code> (use
+	 * {@link #getTargetQuery()}).
+	 * </p>
+	 *
+	 * @return journal join query or null
+	 */
+	public default String getJoinQuery() {
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Number of partitions the journal is split into. Each partition has its
+	 * own lock and last window_id in ZooKeeper, so partitions are captured
+	 * concurrently by different threads and agents. A journal row belongs to
+	 * partition <code>mod(abs(coalesce(key, 0)), partitions)</code>, where key
+	 * is {@link #getPartitionKey()}, which partitioned handlers must declare.
+	 * </p>
+	 * <p>
+	 * A join query (see {@link #getJoinQuery()}) is only used by partitioned
+	 * handlers when it filters journal rows by the named parameters
+	 * <code>:partition</code> and <code>:partitions</code> the same way, like
+	 * in <code>and mod(abs(coalesce(j.key1, 0)), :partitions) =
+	 * :partition</code>, so no journal row is left out of every partition.
+	 * </p>
+	 * Default is 1 (no partitioning).
+	 *
+	 * @return number of journal partitions
+	 */
+	public default int getPartitions() {
+		return 1;
+	}
+
+	/**
+	 * A journal column, or an SQL expression over journal columns, returning
+	 * an integer used to assign journal rows to partitions (see
+	 * {@link #getPartitions()}); null values belong to partition 0 and
+	 * negative values to the partition of their absolute value. All journal
+	 * rows of a key must belong to the same partition to keep their capture
+	 * order, so it's usually derived from the captured table's key (like
+	 * <code>key1</code>), never from <code>window_id</code>. It's required
+	 * when the journal has more than one partition. Default is
+	 * <code>null</code>.
+	 *
+	 * @return partitioning column or expression, or null
+	 */
+	public default String getPartitionKey() {
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Maximum number of rows handed to {@link #publish(Data)} at once. When
+	 * greater than zero, captured rows are published in chunks while they are
+	 * still being retrieved, so memory used by a batch is bounded by the chunk
+	 * size instead of the batch size. Journal is only updated after all chunks
+	 * of a batch were published.
+	 * </p>
+	 * Default is 0 (the whole batch is published at once).
+	 *
+	 * @return maximum rows per publish call or 0
+	 */
+	public default int getPublishChunkSize() {
+		return 0;
+	}
+
+	/**
+	 * <p>
+	 * Enables pipelined capture for the {@link JournalStrategy#WINDOW}
+	 * strategy: data is published by a separate thread, so the database is
+	 * read while previous data is being published. With a drain budget (see
+	 * {@link #getDrainTimeBudget()} and {@link #getDrainRowBudget()}),
+	 * consecutive batches are captured while a lock is held, until the
+	 * journal returns a partial batch or the budget is exhausted; otherwise a
+	 * single batch is captured per cycle. The value is the maximum number of
+	 * publish chunks (see {@link #getPublishChunkSize()}) and checkpoints
+	 * waiting to be published. Publishing order is kept and a batch's
+	 * window_id is only memorized after all its data was published.
+	 * </p>
+	 * Default is 0 (serial capture).
+	 *
+	 * @return pipeline depth or 0
+	 */
+	public default int getPipelineDepth() {
+		return 0;
+	}
+
+	/**
+	 * <p>
+	 * Maximum time, in milliseconds, a capture cycle keeps the journal lock to
+	 * capture consecutive batches. When greater than zero, full batches are
+	 * followed by another batch within the same lock acquisition and database
+	 * connection, until the journal returns a partial batch or the budget is
+	 * exhausted. The journal is updated after each batch.
+	 * </p>
+	 * Default is 0 (no time budget).
+	 *
+	 * @return drain time budget in milliseconds or 0
+	 */
+	public default long getDrainTimeBudget() {
+		return 0L;
+	}
+
+	/**
+	 * <p>
+	 * Maximum number of rows captured by a cycle that drains consecutive
+	 * batches (see {@link #getDrainTimeBudget()}). When greater than zero,
+	 * draining is enabled even without a time budget.
+	 * </p>
+	 * Default is 0 (no row budget).
+	 *
+	 * @return drain row budget or 0
+	 */
+	public default int getDrainRowBudget() {
+		return 0;
+	}
+
+	/**
+	 * <p>
+	 * Minimum time, in milliseconds, between writes of the last captured
+	 * window_id ({@link JournalStrategy#WINDOW} strategy) while a cycle
+	 * captures consecutive batches. A pending window_id is always written
+	 * before the lock is released, so at most this interval (or
+	 * {@link #getCheckpointBatches()} batches) of data is published again
+	 * after an agent crash.
+	 * </p>
+	 * Default is 0 (no time limit; without a batch limit either, window_id is
+	 * written after every batch).
+	 *
+	 * @return milliseconds between checkpoint writes or 0
+	 */
+	public default long getCheckpointInterval() {
+		return 0L;
+	}
+
+	/**
+	 * Maximum number of batches captured between writes of the last captured
+	 * window_id (see {@link #getCheckpointInterval()}). Default is 1 (no batch
+	 * limit; without a time limit either, window_id is written after every
+	 * batch).
+	 *
+	 * @return batches between checkpoint writes
+	 */
+	public default int getCheckpointBatches() {
+		return 1;
+	}
+
+	/**
+	 * <p>
+	 * Handler's share of its data source's capture threads, relative to other
+	 * handlers of the same source. When more cycles are due than threads are
+	 * available, handlers get thread time in proportion to their priority
+	 * (weighted fair queuing), so a handler with priority 3 runs three times
+	 * as long as a handler with priority 1.
+	 * </p>
+	 * Default is 1.
+	 *
+	 * @return scheduling weight (at least 1)
+	 */
+	public default int getPriority() {
+		return 1;
+	}
+
+	/**
+	 * <p>
+	 * Desired maximum time, in milliseconds, between a change in the journal
+	 * and its publication. When greater than zero, the interval between
+	 * capture cycles (even for an idle journal) is kept below half the
+	 * target, and the achieved latency is reported against it.
+	 * </p>
+	 * Default is 0 (no target, the agent's intervals are used).
+	 *
+	 * @return target latency in milliseconds or 0
+	 */
+	public default long getTargetLatency() {
+		return 0L;
+	}
+
+	/**
+	 * When true, captured rows are handed to {@link #publish(Data)} as
+	 * {@link ColumnarData} objects: values are kept in typed column arrays
+	 * instead of one object array per row. Default is false.
+	 *
+	 * @return true to receive {@link ColumnarData} objects
+	 */
+	public default boolean isColumnar() {
+		return false;
+	}
+
 	/**
 	 * Publishes captured data (like writing a file or publishing to a kafka
 	 * queue).
@@ -61,6 +312,56 @@ public interface JournalHandler {
 	 */
 	public void publish(Data data) throws PublishException;
 
+	/**
+	 * <p>
+	 * Starts publishing captured data, returning a future completed when data
+	 * was published. Journal is only updated after all futures of a batch
+	 * were completed successfully.
+	 * </p>
+	 * Default implementation calls {@link #publish(Data)} and returns an
+	 * already completed future. Handlers publishing to destinations with high
+	 * latency per call may override it (see {@link AsyncPublisher}) together
+	 * with {@link #getMaxInFlight()}.
+	 * 
+	 * @param data
+	 *            object {@link Data} for captured data
+	 * @return a future completed when data was published, or completed
+	 *         exceptionally when it couldn't be published
+	 */
+	public default CompletableFuture<Void> publishAsync(Data data) {
+
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		try {
+			publish(data);
+			future.complete(null);
+
+		} catch (PublishException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * <p>
+	 * Maximum number of {@link #publishAsync(Data)} calls not yet completed.
+	 * When the limit is reached, capture waits for a call to complete.
+	 * </p>
+	 * <p>
+	 * Serial capture waits for all calls of a batch before the next batch is
+	 * read, so the limit only applies to the publish chunks of a batch (see
+	 * {@link #getPublishChunkSize()}): with chunk size 0 a batch is a single
+	 * call and the limit has no effect. To keep publishing while the next
+	 * batch is read, use pipelined capture (see {@link #getPipelineDepth()}),
+	 * where the limit applies across batches.
+	 * </p>
+	 * Default is 1.
+	 * 
+	 * @return maximum in-flight publish calls
+	 */
+	public default int getMaxInFlight() {
+		return 1;
+	}
+
 	/**
 	 * Establish the journal strategy:
 	 * <ul>
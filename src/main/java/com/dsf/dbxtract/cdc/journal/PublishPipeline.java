@@ -0,0 +1,179 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.dsf.dbxtract.cdc.PublishException;
+
+/**
+ * A bounded queue between the capture stage (journal and data retrieval) and
+ * the publishing stage (publish and checkpoint) of a {@link JournalExecutor}.
+ * Tasks are executed by a single consumer thread, in submission order, so a
+ * batch's checkpoint task always runs after its publish tasks.
+ * 
+ * After the first failed task, remaining tasks are discarded and the failure
+ * is reported to the producer.
+ * 
+ * @author fabio de santi
+ */
+class PublishPipeline {
+
+	/**
+	 * A unit of work of the publishing stage.
+	 */
+	@FunctionalInterface
+	interface Task {
+		void run() throws Exception;
+	}
+
+	private static final Task END = () -> {
+	};
+
+	private final BlockingQueue<Task> queue;
+	private final Future<?> consumer;
+	private volatile Exception failure = null;
+	private boolean closed = false;
+
+	/**
+	 * 
+	 * @param executor
+	 *            executor service for the consumer thread
+	 * @param depth
+	 *            maximum queued tasks
+	 */
+	PublishPipeline(ExecutorService executor, int depth) {
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, depth));
+		this.consumer = executor.submit(this::consume);
+	}
+
+	private void consume() {
+
+		try {
+			Task task;
+			while ((task = queue.take()) != END) {
+				if (failure != null)
+					continue;
+				try {
+					task.run();
+				} catch (Exception e) {
+					failure = e;
+				}
+			}
+		} catch (InterruptedException ie) {
+			failure = ie;
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues a task, waiting while the queue is full.
+	 * 
+	 * @param task
+	 *            task to be executed by the publishing stage
+	 * @throws PublishException
+	 *             a previous task has failed
+	 * @throws InterruptedException
+	 *             producer was interrupted
+	 */
+	void submit(Task task) throws PublishException, InterruptedException {
+		checkFailure();
+		put(task);
+	}
+
+	private void put(Task task) throws PublishException, InterruptedException {
+
+		while (!queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+			if (consumer.isDone()) {
+				checkFailure();
+				throw new PublishException("publishing stage has stopped");
+			}
+		}
+	}
+
+	/**
+	 * Waits for all queued tasks and stops the publishing stage. It's safe to
+	 * call it more than once.
+	 * 
+	 * @throws PublishException
+	 *             any task has failed
+	 * @throws InterruptedException
+	 *             producer was interrupted
+	 */
+	void close() throws PublishException, InterruptedException {
+
+		if (!closed) {
+			closed = true;
+			if (!consumer.isDone())
+				put(END);
+			try {
+				consumer.get();
+			} catch (ExecutionException e) {
+				throw new PublishException("publishing stage failure", e.getCause());
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Stops the publishing stage, like {@link #close()}, and then waits for
+	 * work chained by its tasks (like checkpoint writes), even if a task has
+	 * failed, so nothing is left running when the caller releases its lock.
+	 * 
+	 * @param commits
+	 *            supplies the future of the chained work, read after the
+	 *            publishing stage has stopped
+	 * @throws PublishException
+	 *             any task or chained work has failed
+	 * @throws InterruptedException
+	 *             producer was interrupted
+	 */
+	void close(Supplier<CompletableFuture<Void>> commits) throws PublishException, InterruptedException {
+
+		PublishException failure = null;
+		try {
+			close();
+		} catch (PublishException e) {
+			failure = e;
+		}
+		try {
+			InFlightPublisher.await(commits.get());
+		} catch (PublishException e) {
+			if (failure == null)
+				throw e;
+			failure.addSuppressed(e);
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	private void checkFailure() throws PublishException {
+
+		Exception e = failure;
+		if (e instanceof PublishException)
+			throw (PublishException) e;
+		if (e != null)
+			throw new PublishException("publishing stage failure", e);
+	}
+}
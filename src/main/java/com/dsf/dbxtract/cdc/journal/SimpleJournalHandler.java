@@ -16,6 +16,10 @@
 
 package com.dsf.dbxtract.cdc.journal;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.dsf.dbxtract.cdc.AsyncPublisher;
 import com.dsf.dbxtract.cdc.ConfigurationException;
 import com.dsf.dbxtract.cdc.Data;
 import com.dsf.dbxtract.cdc.PublishException;
@@ -33,6 +37,8 @@ public class SimpleJournalHandler implements JournalHandler {
 	private String query;
 	private int batchSize;
 	private Publisher publisher;
+	private AsyncPublisher asyncPublisher;
+	private int maxInFlight = 1;
 	private JournalStrategy strategy;
 
 	/**
@@ -62,7 +68,39 @@ public class SimpleJournalHandler implements JournalHandler {
 		this.strategy = strategy == null ? JournalStrategy.WINDOW : strategy;
 	}
 
-	private static void validateParameters(String journalTable, String query, int batchSize, Publisher publisher)
+	/**
+	 * 
+	 * @param journalTable
+	 *            journal table's name
+	 * @param query
+	 *            query for data retrieval
+	 * @param batchSize
+	 *            number of rows per batch
+	 * @param publisher
+	 *            {@link AsyncPublisher} object
+	 * @param maxInFlight
+	 *            maximum publish calls not yet completed
+	 * @param strategy
+	 *            journal strategy
+	 * @throws ConfigurationException
+	 *             invalid parameters
+	 */
+	public SimpleJournalHandler(String journalTable, String query, int batchSize, AsyncPublisher publisher,
+			int maxInFlight, JournalStrategy strategy) throws ConfigurationException {
+
+		validateParameters(journalTable, query, batchSize, publisher);
+		if (maxInFlight <= 0)
+			throw new ConfigurationException("max in-flight must be a positive integer");
+
+		this.journal = journalTable;
+		this.query = query;
+		this.batchSize = batchSize;
+		this.asyncPublisher = publisher;
+		this.maxInFlight = maxInFlight;
+		this.strategy = strategy == null ? JournalStrategy.WINDOW : strategy;
+	}
+
+	private static void validateParameters(String journalTable, String query, int batchSize, Object publisher)
 			throws ConfigurationException {
 
 		if (isEmptyOrNull(journalTable))
@@ -105,7 +143,42 @@ public class SimpleJournalHandler implements JournalHandler {
 	 */
 	@Override
 	public void publish(Data data) throws PublishException {
-		publisher.publish(data);
+
+		if (publisher != null) {
+			publisher.publish(data);
+			return;
+		}
+		try {
+			asyncPublisher.publishAsync(data).get();
+
+		} catch (ExecutionException e) {
+			throw new PublishException("publish failure", e.getCause());
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PublishException("publish interrupted", e);
+		}
+	}
+
+	/**
+	 * @param data
+	 *            retrieved data (see {@link Data}})
+	 * @return a future completed when data was published
+	 */
+	@Override
+	public CompletableFuture<Void> publishAsync(Data data) {
+
+		if (asyncPublisher != null)
+			return asyncPublisher.publishAsync(data);
+		return JournalHandler.super.publishAsync(data);
+	}
+
+	/**
+	 * @return maximum publish calls not yet completed
+	 */
+	@Override
+	public int getMaxInFlight() {
+		return maxInFlight;
 	}
 
 	private static boolean isEmptyOrNull(String o) {
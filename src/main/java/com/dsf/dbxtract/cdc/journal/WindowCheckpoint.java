@@ -0,0 +1,219 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.data.Stat;
+
+import com.dsf.dbxtract.cdc.ConfigurationException;
+
+/**
+ * Last captured window_id of a journal ({@link JournalStrategy#WINDOW}
+ * strategy), kept in ZooKeeper.
+ * 
+ * The value is read once per lock acquisition ({@link #load()}) and cached
+ * while the lock is held. Each write is a single versioned
+ * <code>setData</code>, so a write made by an agent that lost its lock is
+ * rejected. Writes may be coalesced (see
+ * {@link JournalHandler#getCheckpointInterval()} and
+ * {@link JournalHandler#getCheckpointBatches()}); pending values are written
+ * by {@link #flush()}, before the lock is released.
+ * 
+ * An optional initial path is read while the checkpoint was never written,
+ * so a journal that becomes partitioned resumes from its last window_id.
+ * 
+ * @author fabio de santi
+ */
+class WindowCheckpoint {
+
+	private static final Logger logger = LogManager.getLogger(WindowCheckpoint.class.getName());
+
+	private static final int NO_NODE = -1;
+
+	private final CuratorFramework client;
+	private final String path;
+	private final String initialPath;
+	private final long interval;
+	private final int batches;
+	private long windowId = 0L;
+	private int version = NO_NODE;
+	private Long pending = null;
+	private int pendingBatches = 0;
+	private long lastWrite = 0L;
+
+	/**
+	 * 
+	 * @param client
+	 *            zookeeper client
+	 * @param path
+	 *            zookeeper path of the last window_id
+	 * @param handler
+	 *            journal's handler
+	 */
+	WindowCheckpoint(CuratorFramework client, String path, JournalHandler handler) {
+		this(client, path, null, handler);
+	}
+
+	/**
+	 * 
+	 * @param client
+	 *            zookeeper client
+	 * @param path
+	 *            zookeeper path of the last window_id
+	 * @param initialPath
+	 *            zookeeper path read while <code>path</code> doesn't exist, or
+	 *            null
+	 * @param handler
+	 *            journal's handler
+	 */
+	WindowCheckpoint(CuratorFramework client, String path, String initialPath, JournalHandler handler) {
+		this.client = client;
+		this.path = path;
+		this.initialPath = initialPath;
+		this.interval = handler.getCheckpointInterval();
+		this.batches = handler.getCheckpointBatches();
+		this.lastWrite = System.currentTimeMillis();
+	}
+
+	/**
+	 * Reads the last window_id. It must be called after the lock was acquired.
+	 * 
+	 * @throws ConfigurationException
+	 *             failed to access zookeeper
+	 */
+	synchronized void load() throws ConfigurationException {
+
+		pending = null;
+		pendingBatches = 0;
+		try {
+			Stat stat = new Stat();
+			windowId = parse(client.getData().storingStatIn(stat).forPath(path));
+			version = stat.getVersion();
+
+		} catch (NoNodeException nne) {
+			windowId = loadInitial();
+			version = NO_NODE;
+
+		} catch (Exception e) {
+			throw new ConfigurationException("Failed to access zk entry " + path, e);
+		}
+		lastWrite = System.currentTimeMillis();
+	}
+
+	private long loadInitial() throws ConfigurationException {
+
+		if (initialPath == null)
+			return 0L;
+		try {
+			long initial = parse(client.getData().forPath(initialPath));
+			logger.info(path + " starts from " + initialPath + " = " + initial);
+			return initial;
+
+		} catch (NoNodeException nne) {
+			return 0L;
+
+		} catch (Exception e) {
+			throw new ConfigurationException("Failed to access zk entry " + initialPath, e);
+		}
+	}
+
+	private static long parse(byte[] b) {
+		return b == null || b.length == 0 ? 0L : Long.parseLong(new String(b, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 
+	 * @return last captured window_id, including values not yet written
+	 */
+	synchronized long get() {
+		return pending == null ? windowId : pending;
+	}
+
+	/**
+	 * Memorizes a batch's last window_id, writing it when coalescing limits
+	 * are reached.
+	 * 
+	 * @param lastWindowId
+	 *            last window_id of a published batch
+	 * @throws ConfigurationException
+	 *             failed to write to zookeeper
+	 */
+	synchronized void update(long lastWindowId) throws ConfigurationException {
+
+		pending = lastWindowId;
+		pendingBatches++;
+		if (isDue(System.currentTimeMillis()))
+			flush();
+	}
+
+	/**
+	 * Checks whether pending values must be written. An interval of 0 or a
+	 * limit of 1 batch disables its trigger; when neither is configured,
+	 * every batch is written.
+	 * 
+	 * @param now
+	 *            current time, from {@link System#currentTimeMillis()}
+	 * @return true if a coalescing limit was reached
+	 */
+	synchronized boolean isDue(long now) {
+
+		boolean byBatches = batches > 1;
+		boolean byTime = interval > 0;
+		if (!byBatches && !byTime)
+			return true;
+		return (byBatches && pendingBatches >= batches) || (byTime && now - lastWrite >= interval);
+	}
+
+	/**
+	 * Writes the pending window_id, if any.
+	 * 
+	 * @throws ConfigurationException
+	 *             failed to write to zookeeper
+	 */
+	synchronized void flush() throws ConfigurationException {
+
+		if (pending == null)
+			return;
+
+		byte[] b = pending.toString().getBytes(StandardCharsets.UTF_8);
+		try {
+			if (version == NO_NODE) {
+				client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(path, b);
+				version = 0;
+			} else {
+				version = client.setData().withVersion(version).forPath(path, b).getVersion();
+			}
+			windowId = pending;
+			if (logger.isTraceEnabled())
+				logger.trace(path + " = " + windowId + " (" + pendingBatches + " batches)");
+
+		} catch (Exception e) {
+			throw new ConfigurationException("Failed to update zk entry " + path, e);
+
+		} finally {
+			pending = null;
+			pendingBatches = 0;
+			lastWrite = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc.mon;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local performance metrics of a handler: latency histograms for each
+ * {@link Stage} of the capture cycle, achieved capture latency and published
+ * rows and bytes rates.
+ * 
+ * @author fabio de santi
+ */
+public class HandlerMetrics {
+
+	private final String name;
+	private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+	private final LatencyHistogram captureLatency = new LatencyHistogram();
+	private final Meter rows = new Meter();
+	private final Meter bytes = new Meter();
+	private final Map<String, LongAdder> cycles = new ConcurrentSkipListMap<>();
+	private final Map<String, Progress> tasks = new ConcurrentSkipListMap<>();
+	private volatile int priority = 1;
+	private volatile long targetLatency = 0L;
+
+	/**
+	 * 
+	 * @param name
+	 *            handler's name
+	 */
+	public HandlerMetrics(String name) {
+		this.name = name;
+		for (Stage stage : Stage.values()) {
+			latencies.put(stage, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * 
+	 * @return handler's name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * 
+	 * @param stage
+	 *            capture cycle's stage
+	 * @return latency histogram of the stage
+	 */
+	public LatencyHistogram getLatency(Stage stage) {
+		return latencies.get(stage);
+	}
+
+	/**
+	 * Records the time elapsed in a stage.
+	 * 
+	 * @param stage
+	 *            capture cycle's stage
+	 * @param startNanos
+	 *            stage's start time, from {@link System#nanoTime()}
+	 */
+	public void record(Stage stage, long startNanos) {
+		latencies.get(stage).recordSince(startNanos);
+	}
+
+	/**
+	 * 
+	 * @return achieved capture latency: time from the start of a capture cycle
+	 *         to the end of the next one, the longest a change may wait to be
+	 *         published
+	 */
+	public LatencyHistogram getCaptureLatency() {
+		return captureLatency;
+	}
+
+	/**
+	 * 
+	 * @param priority
+	 *            handler's scheduling weight
+	 * @param targetLatency
+	 *            handler's target latency in milliseconds, or 0
+	 */
+	public void setScheduling(int priority, long targetLatency) {
+		this.priority = priority;
+		this.targetLatency = targetLatency;
+	}
+
+	/**
+	 * 
+	 * @return handler's scheduling weight
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * 
+	 * @return handler's target latency in milliseconds, or 0
+	 */
+	public long getTargetLatency() {
+		return targetLatency;
+	}
+
+	/**
+	 * Records published data.
+	 * 
+	 * @param rowCount
+	 *            published rows
+	 * @param byteCount
+	 *            estimated published bytes
+	 */
+	public void published(int rowCount, long byteCount) {
+		rows.mark(rowCount);
+		bytes.mark(byteCount);
+	}
+
+	/**
+	 * 
+	 * @return total published rows
+	 */
+	public long getRows() {
+		return rows.getTotal();
+	}
+
+	/**
+	 * 
+	 * @return total published bytes (estimated)
+	 */
+	public long getBytes() {
+		return bytes.getTotal();
+	}
+
+	/**
+	 * 
+	 * @return published rows per second, during the last minute
+	 */
+	public double getRowRate() {
+		return rows.getRate();
+	}
+
+	/**
+	 * 
+	 * @return published bytes per second (estimated), during the last minute
+	 */
+	public double getByteRate() {
+		return bytes.getRate();
+	}
+
+	/**
+	 * Records the end of a capture cycle.
+	 * 
+	 * @param task
+	 *            executor's task id (journal and partition)
+	 * @param result
+	 *            cycle's result
+	 * @param behind
+	 *            true when the journal may still have data to be captured
+	 */
+	public void cycle(String task, String result, boolean behind) {
+
+		cycles.computeIfAbsent(result, r -> new LongAdder()).increment();
+		Progress p = tasks.computeIfAbsent(task, t -> new Progress());
+		if (!behind)
+			p.behindSince = 0L;
+		else if (p.behindSince == 0L)
+			p.behindSince = System.currentTimeMillis();
+	}
+
+	/**
+	 * 
+	 * @return number of capture cycles, by result
+	 */
+	public Map<String, Long> getCycles() {
+
+		Map<String, Long> map = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> e : cycles.entrySet()) {
+			map.put(e.getKey(), e.getValue().sum());
+		}
+		return map;
+	}
+
+	/**
+	 * 
+	 * @return milliseconds since the journal was last found drained, or 0 if
+	 *         it's currently drained; the largest among the journal's
+	 *         partitions
+	 */
+	public long getJournalLag() {
+
+		long now = System.currentTimeMillis();
+		long lag = 0L;
+		for (Progress p : tasks.values()) {
+			long since = p.behindSince;
+			if (since > 0L)
+				lag = Math.max(lag, now - since);
+		}
+		return lag;
+	}
+
+	/**
+	 * 
+	 * @param task
+	 *            executor's task id (journal and partition)
+	 * @param windowId
+	 *            last window_id memorized by this agent
+	 */
+	public void setLastWindowId(String task, long windowId) {
+		tasks.computeIfAbsent(task, t -> new Progress()).lastWindowId = windowId;
+	}
+
+	/**
+	 * 
+	 * @return last window_id memorized by this agent, or -1; the smallest
+	 *         among the journal's partitions, since all data up to it was
+	 *         captured
+	 */
+	public long getLastWindowId() {
+
+		long windowId = -1L;
+		for (Progress p : tasks.values()) {
+			long id = p.lastWindowId;
+			if (id >= 0L && (windowId < 0L || id < windowId))
+				windowId = id;
+		}
+		return windowId;
+	}
+
+	/**
+	 * Capture progress of one of the handler's executors (a journal partition).
+	 */
+	private static class Progress {
+
+		volatile long behindSince = 0L;
+		volatile long lastWindowId = -1L;
+	}
+
+	/**
+	 * A counter with a moving rate over the last minute, kept in one slot per
+	 * second.
+	 */
+	private static class Meter {
+
+		private static final int SLOTS = 60;
+
+		private final long start = System.currentTimeMillis() / 1000L;
+		private final LongAdder total = new LongAdder();
+		private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+		private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+
+		void mark(long n) {
+
+			long now = System.currentTimeMillis() / 1000L;
+			int i = (int) (now % SLOTS);
+			long second = seconds.get(i);
+			if (second != now && seconds.compareAndSet(i, second, now))
+				counts.set(i, 0L);
+			counts.addAndGet(i, n);
+			total.add(n);
+		}
+
+		long getTotal() {
+			return total.sum();
+		}
+
+		double getRate() {
+
+			long now = System.currentTimeMillis() / 1000L;
+			long sum = 0L;
+			for (int i = 0; i < SLOTS; i++) {
+				if (now - seconds.get(i) < SLOTS)
+					sum += counts.get(i);
+			}
+			long elapsed = Math.max(1L, Math.min(SLOTS, now - start + 1));
+			return (double) sum / elapsed;
+		}
+	}
+}
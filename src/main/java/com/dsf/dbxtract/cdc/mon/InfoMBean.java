@@ -16,8 +16,11 @@
 
 package com.dsf.dbxtract.cdc.mon;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -44,7 +47,12 @@ import javax.management.openmbean.TabularType;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.utils.CloseableUtils;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -55,7 +63,8 @@ import com.dsf.dbxtract.cdc.mon.Statistics.StatEntry;
 
 /**
  * Provides basic statistics from CDC Handlers, like last run time, last capture
- * time and total rows captured during current session.
+ * time and total rows captured during current session. Statistics are kept in
+ * memory, updated by zookeeper watches.
  * 
  * @author fabio de santi
  * @version 0.2
@@ -65,6 +74,9 @@ public class InfoMBean implements DynamicMBean {
 	private static Logger logger = LogManager.getLogger(InfoMBean.class.getName());
 
 	public static final String ATTR_INFO = "Info";
+	public static final String ATTR_LATENCY = "Latency";
+	public static final String ATTR_THROUGHPUT = "Throughput";
+	public static final String ATTR_SCHEDULING = "Scheduling";
 
 	private static String[] itemNames = new String[] { "handler", "lastSeek", "lastRead", "readCount" };
 	private static String[] itemDescriptions = new String[] { "Handler name", "Last time a change was checked",
@@ -74,16 +86,62 @@ public class InfoMBean implements DynamicMBean {
 	private static String[] indexNames = new String[] { itemNames[0] };
 	private static CompositeType pageType = null;
 	private static TabularType pageTabularType = null;
+
+	private static String[] latencyNames = new String[] { "handler", "stage", "count", "p50", "p99", "max" };
+	private static String[] latencyDescriptions = new String[] { "Handler name", "Capture cycle stage",
+			"Number of measures", "Median latency (ms)", "99th percentile latency (ms)", "Maximum latency (ms)" };
+	@SuppressWarnings("rawtypes")
+	private static OpenType[] latencyTypes = { SimpleType.STRING, SimpleType.STRING, SimpleType.LONG,
+			SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE };
+	private static CompositeType latencyType = null;
+	private static TabularType latencyTabularType = null;
+
+	private static String[] throughputNames = new String[] { "handler", "rows", "bytes", "rowsPerSec",
+			"bytesPerSec" };
+	private static String[] throughputDescriptions = new String[] { "Handler name", "Rows published by this agent",
+			"Bytes published by this agent (estimated)", "Rows per second (last minute)",
+			"Bytes per second (last minute, estimated)" };
+	@SuppressWarnings("rawtypes")
+	private static OpenType[] throughputTypes = { SimpleType.STRING, SimpleType.LONG, SimpleType.LONG,
+			SimpleType.DOUBLE, SimpleType.DOUBLE };
+	private static CompositeType throughputType = null;
+	private static TabularType throughputTabularType = null;
+
+	private static String[] schedulingNames = new String[] { "handler", "priority", "target", "count", "p50", "p99",
+			"max", "onTarget" };
+	private static String[] schedulingDescriptions = new String[] { "Handler name", "Scheduling weight",
+			"Target capture latency (ms, 0 if none)", "Number of measures", "Median capture latency (ms)",
+			"99th percentile capture latency (ms)", "Maximum capture latency (ms)",
+			"99th percentile within target (null if no target)" };
+	@SuppressWarnings("rawtypes")
+	private static OpenType[] schedulingTypes = { SimpleType.STRING, SimpleType.INTEGER, SimpleType.LONG,
+			SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.BOOLEAN };
+	private static CompositeType schedulingType = null;
+	private static TabularType schedulingTabularType = null;
 	private TabularDataSupport pageData;
 	private OpenMBeanInfoSupport openMBeanInfo;
 
 	private ObjectMapper mapper = null;
 	private Config config = null;
+	private CuratorFramework client = null;
+	private PathChildrenCache cache = null;
+	private final Map<String, StatEntry> entries = new ConcurrentSkipListMap<>();
 
 	static {
 		try {
 			pageType = new CompositeType("stat", "Statistics", itemNames, itemDescriptions, itemTypes);
 			pageTabularType = new TabularType("stats", "Handler's statistics", pageType, indexNames);
+			latencyType = new CompositeType("latency", "Latency", latencyNames, latencyDescriptions, latencyTypes);
+			latencyTabularType = new TabularType("latencies", "Handler's latency per stage", latencyType,
+					new String[] { latencyNames[0], latencyNames[1] });
+			throughputType = new CompositeType("throughput", "Throughput", throughputNames, throughputDescriptions,
+					throughputTypes);
+			throughputTabularType = new TabularType("throughputs", "Handler's throughput", throughputType,
+					new String[] { throughputNames[0] });
+			schedulingType = new CompositeType("scheduling", "Scheduling", schedulingNames, schedulingDescriptions,
+					schedulingTypes);
+			schedulingTabularType = new TabularType("schedulings", "Handler's capture latency against its target",
+					schedulingType, new String[] { schedulingNames[0] });
 
 		} catch (OpenDataException e) {
 			logger.error(e);
@@ -101,6 +159,13 @@ public class InfoMBean implements DynamicMBean {
 
 		OpenMBeanAttributeInfoSupport[] attributes = new OpenMBeanAttributeInfoSupport[] {
 				new OpenMBeanAttributeInfoSupport(ATTR_INFO, "Handlers statistics", pageTabularType, true, false,
+						false),
+				new OpenMBeanAttributeInfoSupport(ATTR_LATENCY, "Handlers latency per stage (this agent)",
+						latencyTabularType, true, false, false),
+				new OpenMBeanAttributeInfoSupport(ATTR_THROUGHPUT, "Handlers throughput (this agent)",
+						throughputTabularType, true, false, false),
+				new OpenMBeanAttributeInfoSupport(ATTR_SCHEDULING,
+						"Handlers capture latency against target (this agent)", schedulingTabularType, true, false,
 						false) };
 		openMBeanInfo = new OpenMBeanInfoSupport(InfoMBean.class.getName(), "Handler Statistics OMB", attributes,
 				new OpenMBeanConstructorInfoSupport[0], new OpenMBeanOperationInfoSupport[0],
@@ -117,10 +182,69 @@ public class InfoMBean implements DynamicMBean {
 			} catch (ConfigurationException e) {
 				logger.error("getAttribute('" + ATTR_INFO + "')", e);
 			}
+		} else if (attrName.equals(ATTR_LATENCY)) {
+			return getLatencyData();
+
+		} else if (attrName.equals(ATTR_THROUGHPUT)) {
+			return getThroughputData();
+
+		} else if (attrName.equals(ATTR_SCHEDULING)) {
+			return getSchedulingData();
 		}
 		return null;
 	}
 
+	private Object getLatencyData() {
+
+		TabularDataSupport data = new TabularDataSupport(latencyTabularType);
+		for (HandlerMetrics metrics : Metrics.getInstance().getHandlers()) {
+			for (Stage stage : Stage.values()) {
+				LatencyHistogram h = metrics.getLatency(stage);
+				Object[] itemValues = { metrics.getName(), stage.name(), h.getCount(),
+						h.getPercentile(50d) / 1000d, h.getPercentile(99d) / 1000d, h.getMax() / 1000d };
+				try {
+					data.put(new CompositeDataSupport(latencyType, latencyNames, itemValues));
+				} catch (OpenDataException e) {
+					logger.error(e);
+				}
+			}
+		}
+		return data;
+	}
+
+	private Object getThroughputData() {
+
+		TabularDataSupport data = new TabularDataSupport(throughputTabularType);
+		for (HandlerMetrics metrics : Metrics.getInstance().getHandlers()) {
+			Object[] itemValues = { metrics.getName(), metrics.getRows(), metrics.getBytes(), metrics.getRowRate(),
+					metrics.getByteRate() };
+			try {
+				data.put(new CompositeDataSupport(throughputType, throughputNames, itemValues));
+			} catch (OpenDataException e) {
+				logger.error(e);
+			}
+		}
+		return data;
+	}
+
+	private Object getSchedulingData() {
+
+		TabularDataSupport data = new TabularDataSupport(schedulingTabularType);
+		for (HandlerMetrics metrics : Metrics.getInstance().getHandlers()) {
+			LatencyHistogram h = metrics.getCaptureLatency();
+			long target = metrics.getTargetLatency();
+			Boolean onTarget = target > 0 && h.getCount() > 0 ? h.getPercentile(99d) <= target * 1000L : null;
+			Object[] itemValues = { metrics.getName(), metrics.getPriority(), target, h.getCount(),
+					h.getPercentile(50d) / 1000d, h.getPercentile(99d) / 1000d, h.getMax() / 1000d, onTarget };
+			try {
+				data.put(new CompositeDataSupport(schedulingType, schedulingNames, itemValues));
+			} catch (OpenDataException e) {
+				logger.error(e);
+			}
+		}
+		return data;
+	}
+
 	private Object refreshPageData() throws ConfigurationException {
 
 		List<StatEntry> list = getInfo();
@@ -181,26 +305,81 @@ public class InfoMBean implements DynamicMBean {
 
 	private List<StatEntry> getInfo() throws ConfigurationException {
 
+		startCache();
+		return new ArrayList<>(entries.values());
+	}
+
+	/**
+	 * Starts, at first use, a long-lived zookeeper client and a cache of
+	 * statistics nodes. Cached entries are updated by zookeeper watches, so
+	 * JMX reads are served from memory.
+	 * 
+	 * @throws ConfigurationException
+	 *             failed to start the cache
+	 */
+	private synchronized void startCache() throws ConfigurationException {
+
+		if (cache != null)
+			return;
+
 		if (mapper == null)
 			mapper = new ObjectMapper();
 
-		List<StatEntry> list = new ArrayList<>();
+		RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
+		CuratorFramework zk = CuratorFrameworkFactory.newClient(config.getZooKeeper(), retryPolicy);
+		PathChildrenCache pcc = new PathChildrenCache(zk, Statistics.ZOOPATH, true);
+		pcc.getListenable().addListener((c, event) -> {
+			switch (event.getType()) {
+			case CHILD_ADDED:
+			case CHILD_UPDATED:
+				putEntry(event.getData());
+				break;
+			case CHILD_REMOVED:
+				entries.remove(ZKPaths.getNodeFromPath(event.getData().getPath()));
+				break;
+			default:
+				break;
+			}
+		});
 		try {
-			RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
-			CuratorFramework client = CuratorFrameworkFactory.newClient(config.getZooKeeper(), retryPolicy);
-			client.start();
-			List<String> handlers = client.getChildren().forPath(Statistics.ZOOPATH);
-			for (String handler : handlers) {
-				byte[] b = client.getData().forPath(Statistics.ZOOPATH + "/" + handler);
-				StatEntry entry = mapper.readValue(b, Statistics.StatEntry.class);
-				list.add(entry);
+			zk.start();
+			pcc.start(StartMode.BUILD_INITIAL_CACHE);
+			for (ChildData data : pcc.getCurrentData()) {
+				putEntry(data);
 			}
-			client.close();
-
-			return list;
 
 		} catch (Exception e) {
+			CloseableUtils.closeQuietly(pcc);
+			CloseableUtils.closeQuietly(zk);
 			throw new ConfigurationException("failed to retrieve zk statistics at " + Statistics.ZOOPATH, e);
 		}
+		client = zk;
+		cache = pcc;
+	}
+
+	private void putEntry(ChildData data) {
+
+		String handler = ZKPaths.getNodeFromPath(data.getPath());
+		byte[] b = data.getData();
+		if (b == null || b.length == 0 || b[0] != '{')
+			return;
+		try {
+			entries.put(handler, mapper.readValue(b, Statistics.StatEntry.class));
+
+		} catch (IOException e) {
+			logger.warn("invalid json at " + data.getPath(), e);
+		}
+	}
+
+	/**
+	 * Releases the statistics cache and its zookeeper client.
+	 */
+	public synchronized void close() {
+
+		CloseableUtils.closeQuietly(cache);
+		CloseableUtils.closeQuietly(client);
+		cache = null;
+		client = null;
+		entries.clear();
 	}
 }
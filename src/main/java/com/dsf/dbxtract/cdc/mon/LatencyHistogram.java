@@ -0,0 +1,138 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc.mon;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in microseconds.
+ * Values below 16 have their own bucket; above that, each power of two is
+ * split into 8 linear sub-buckets, so any percentile is reported with an
+ * error below 12.5%, using less than 4KB per histogram.
+ * 
+ * @author fabio de santi
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR = 16;
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param micros
+	 *            latency in microseconds (negative values are recorded as 0)
+	 */
+	public void record(long micros) {
+
+		long v = Math.max(0L, micros);
+		counts.incrementAndGet(getBucket(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		max.accumulateAndGet(v, Math::max);
+	}
+
+	/**
+	 * Records the time elapsed since a {@link System#nanoTime()} value.
+	 * 
+	 * @param startNanos
+	 *            start time, from {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record((System.nanoTime() - startNanos) / 1000L);
+	}
+
+	static int getBucket(long v) {
+
+		if (v < LINEAR)
+			return (int) v;
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exp - 4) * SUB_BUCKETS + sub;
+	}
+
+	static long getBucketUpperBound(int bucket) {
+
+		if (bucket < LINEAR)
+			return bucket;
+		int exp = (bucket - LINEAR) / SUB_BUCKETS + 4;
+		int sub = (bucket - LINEAR) % SUB_BUCKETS;
+		long width = 1L << (exp - SUB_BITS);
+		return ((SUB_BUCKETS + sub) * width) + width - 1;
+	}
+
+	/**
+	 * 
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * 
+	 * @return highest recorded value, in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * 
+	 * @return mean of recorded values, in microseconds
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0d : (double) sum.get() / n;
+	}
+
+	/**
+	 * Gets a percentile of recorded values.
+	 * 
+	 * @param percentile
+	 *            percentile (0 to 100)
+	 * @return value at the given percentile, in microseconds, or 0 if nothing
+	 *         was recorded
+	 */
+	public long getPercentile(double percentile) {
+
+		long total = 0L;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0L;
+
+		long rank = Math.max(1L, (long) Math.ceil(Math.min(100d, percentile) / 100d * total));
+		long seen = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(getBucketUpperBound(i), max.get());
+		}
+		return max.get();
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc.mon;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.dsf.dbxtract.cdc.Data;
+
+/**
+ * Registry of the agent's local {@link HandlerMetrics}.
+ * 
+ * @author fabio de santi
+ */
+public class Metrics {
+
+	private static final int SAMPLE_ROWS = 8;
+
+	private static Metrics instance = null;
+
+	private final Map<String, HandlerMetrics> handlers = new ConcurrentSkipListMap<>();
+
+	/**
+	 * 
+	 * @return the agent's {@link Metrics} object
+	 */
+	public static synchronized Metrics getInstance() {
+		if (instance == null)
+			instance = new Metrics();
+		return instance;
+	}
+
+	/**
+	 * 
+	 * @param handler
+	 *            handler's name
+	 * @return handler's metrics (created at first use)
+	 */
+	public HandlerMetrics getHandler(String handler) {
+		return handlers.computeIfAbsent(handler, HandlerMetrics::new);
+	}
+
+	/**
+	 * 
+	 * @return metrics of all handlers, sorted by handler's name
+	 */
+	public Collection<HandlerMetrics> getHandlers() {
+		return new ArrayList<>(handlers.values());
+	}
+
+	/**
+	 * Estimates the size of captured data, sampling its first rows.
+	 * 
+	 * @param data
+	 *            captured data
+	 * @return estimated size in bytes
+	 */
+	public static long estimateBytes(Data data) {
+
+		int size = data.size();
+		if (size == 0)
+			return 0L;
+
+		List<Object[]> rows = data.getRows();
+		int samples = Math.min(SAMPLE_ROWS, size);
+		long sampled = 0L;
+		for (int i = 0; i < samples; i++) {
+			for (Object value : rows.get(i)) {
+				sampled += estimateBytes(value);
+			}
+		}
+		return sampled * size / samples;
+	}
+
+	private static long estimateBytes(Object value) {
+
+		if (value == null)
+			return 0L;
+		if (value instanceof String)
+			return ((String) value).length();
+		if (value instanceof byte[])
+			return ((byte[]) value).length;
+		if (value instanceof Integer || value instanceof Float)
+			return 4L;
+		if (value instanceof Short)
+			return 2L;
+		if (value instanceof Byte || value instanceof Boolean)
+			return 1L;
+		if (value instanceof BigDecimal)
+			return ((BigDecimal) value).unscaledValue().bitLength() / 8 + 1L;
+		return 8L;
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc.mon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.dsf.dbxtract.cdc.ConnectionPools;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP endpoint (<code>/metrics</code>) serving the agent's local
+ * metrics in Prometheus text format: per handler counters, stage latencies,
+ * capture latency against target, journal lag and connection pool usage.
+ * Values are read from in-memory registries only ({@link Metrics} and
+ * {@link ConnectionPools}).
+ * 
+ * @author fabio de santi
+ */
+public class MetricsServer {
+
+	private static final Logger logger = LogManager.getLogger(MetricsServer.class.getName());
+
+	public static final String PATH = "/metrics";
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final double[] QUANTILES = { 0.5d, 0.9d, 0.99d };
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Starts the HTTP endpoint.
+	 * 
+	 * @param address
+	 *            bind address (null for all addresses)
+	 * @param port
+	 *            TCP port
+	 * @throws IOException
+	 *             failed to bind to the address
+	 */
+	public MetricsServer(String address, int port) throws IOException {
+
+		InetSocketAddress socket = address == null || address.isEmpty() ? new InetSocketAddress(port)
+				: new InetSocketAddress(address, port);
+		this.server = HttpServer.create(socket, 0);
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "dbxtract-metrics");
+			t.setDaemon(true);
+			return t;
+		});
+		server.createContext(PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+		logger.info("Metrics available at http://" + socket.getHostString() + ":" + port + PATH);
+	}
+
+	/**
+	 * Stops the HTTP endpoint.
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+
+		} catch (RuntimeException e) {
+			logger.error("failed to serve metrics", e);
+			exchange.sendResponseHeaders(500, -1);
+
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * 
+	 * @return current metrics in Prometheus text format
+	 */
+	static String scrape() {
+
+		StringBuilder sb = new StringBuilder(4096);
+		Iterable<HandlerMetrics> handlers = Metrics.getInstance().getHandlers();
+
+		header(sb, "dbxtract_rows_published_total", "counter", "Rows published by this agent");
+		for (HandlerMetrics h : handlers) {
+			sample(sb, "dbxtract_rows_published_total", h.getRows(), "handler", h.getName());
+		}
+		header(sb, "dbxtract_bytes_published_total", "counter", "Bytes published by this agent (estimated)");
+		for (HandlerMetrics h : handlers) {
+			sample(sb, "dbxtract_bytes_published_total", h.getBytes(), "handler", h.getName());
+		}
+		header(sb, "dbxtract_cycles_total", "counter", "Capture cycles run by this agent, by result");
+		for (HandlerMetrics h : handlers) {
+			for (Map.Entry<String, Long> e : h.getCycles().entrySet()) {
+				sample(sb, "dbxtract_cycles_total", e.getValue(), "handler", h.getName(), "result", e.getKey());
+			}
+		}
+		header(sb, "dbxtract_journal_lag_seconds", "gauge",
+				"Seconds since the journal was last found drained (0 when drained), largest among partitions");
+		for (HandlerMetrics h : handlers) {
+			sample(sb, "dbxtract_journal_lag_seconds", h.getJournalLag() / 1000d, "handler", h.getName());
+		}
+		header(sb, "dbxtract_last_window_id", "gauge", "Last window_id memorized by this agent, smallest among partitions");
+		for (HandlerMetrics h : handlers) {
+			if (h.getLastWindowId() >= 0)
+				sample(sb, "dbxtract_last_window_id", h.getLastWindowId(), "handler", h.getName());
+		}
+
+		header(sb, "dbxtract_stage_latency_seconds", "summary", "Capture cycle stage latency");
+		for (HandlerMetrics h : handlers) {
+			for (Stage stage : Stage.values()) {
+				LatencyHistogram l = h.getLatency(stage);
+				String s = stage.name().toLowerCase(Locale.ROOT);
+				for (double q : QUANTILES) {
+					sample(sb, "dbxtract_stage_latency_seconds", l.getPercentile(q * 100d) / 1e6d, "handler",
+							h.getName(), "stage", s, "quantile", Double.toString(q));
+				}
+				sample(sb, "dbxtract_stage_latency_seconds_sum", l.getMean() * l.getCount() / 1e6d, "handler",
+						h.getName(), "stage", s);
+				sample(sb, "dbxtract_stage_latency_seconds_count", l.getCount(), "handler", h.getName(), "stage",
+						s);
+			}
+		}
+		header(sb, "dbxtract_stage_latency_max_seconds", "gauge", "Capture cycle stage maximum latency");
+		for (HandlerMetrics h : handlers) {
+			for (Stage stage : Stage.values()) {
+				sample(sb, "dbxtract_stage_latency_max_seconds", h.getLatency(stage).getMax() / 1e6d, "handler",
+						h.getName(), "stage", stage.name().toLowerCase(Locale.ROOT));
+			}
+		}
+		header(sb, "dbxtract_handler_priority", "gauge", "Handler's share of its data source's capture threads");
+		for (HandlerMetrics h : handlers) {
+			sample(sb, "dbxtract_handler_priority", h.getPriority(), "handler", h.getName());
+		}
+		header(sb, "dbxtract_capture_latency_seconds", "summary",
+				"Achieved capture latency, from the start of a cycle to the end of the next one");
+		for (HandlerMetrics h : handlers) {
+			LatencyHistogram l = h.getCaptureLatency();
+			for (double q : QUANTILES) {
+				sample(sb, "dbxtract_capture_latency_seconds", l.getPercentile(q * 100d) / 1e6d, "handler",
+						h.getName(), "quantile", Double.toString(q));
+			}
+			sample(sb, "dbxtract_capture_latency_seconds_sum", l.getMean() * l.getCount() / 1e6d, "handler",
+					h.getName());
+			sample(sb, "dbxtract_capture_latency_seconds_count", l.getCount(), "handler", h.getName());
+		}
+		header(sb, "dbxtract_capture_latency_target_seconds", "gauge", "Handler's target capture latency");
+		for (HandlerMetrics h : handlers) {
+			if (h.getTargetLatency() > 0)
+				sample(sb, "dbxtract_capture_latency_target_seconds", h.getTargetLatency() / 1000d, "handler",
+						h.getName());
+		}
+
+		Map<String, BasicDataSource> pools = ConnectionPools.getInstance().getPools();
+		header(sb, "dbxtract_pool_active_connections", "gauge", "Connections borrowed from the source's pool");
+		for (Map.Entry<String, BasicDataSource> e : pools.entrySet()) {
+			sample(sb, "dbxtract_pool_active_connections", e.getValue().getNumActive(), "source", e.getKey());
+		}
+		header(sb, "dbxtract_pool_idle_connections", "gauge", "Idle connections of the source's pool");
+		for (Map.Entry<String, BasicDataSource> e : pools.entrySet()) {
+			sample(sb, "dbxtract_pool_idle_connections", e.getValue().getNumIdle(), "source", e.getKey());
+		}
+		header(sb, "dbxtract_pool_max_connections", "gauge", "Maximum connections of the source's pool");
+		for (Map.Entry<String, BasicDataSource> e : pools.entrySet()) {
+			sample(sb, "dbxtract_pool_max_connections", e.getValue().getMaxTotal(), "source", e.getKey());
+		}
+		return sb.toString();
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, double value, String... labels) {
+
+		sb.append(name).append('{');
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(labels[i]).append("=\"");
+			escape(sb, labels[i + 1]);
+			sb.append('"');
+		}
+		sb.append("} ");
+		if (value == Math.rint(value) && !Double.isInfinite(value))
+			sb.append((long) value);
+		else
+			sb.append(value);
+		sb.append('\n');
+	}
+
+	private static void escape(StringBuilder sb, String value) {
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else
+				sb.append(c);
+		}
+	}
+}
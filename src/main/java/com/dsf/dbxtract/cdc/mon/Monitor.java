@@ -26,6 +26,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.dsf.dbxtract.cdc.Config;
+import com.dsf.dbxtract.cdc.ConfigurationException;
 
 /**
  * Set's up a HTTP listener for statistics and administration tasks.
@@ -37,8 +38,13 @@ public class Monitor {
 
 	private static final Logger logger = LogManager.getLogger(Monitor.class.getName());
 
+	private static final String MBEAN_NAME = "com.dsf.dbxtract:type=InfoMBean";
+
 	private static Monitor instance;
 
+	private InfoMBean infoMBean = null;
+	private MetricsServer metricsServer = null;
+
 	/**
 	 * Start's monitor JMX.
 	 * 
@@ -51,12 +57,22 @@ public class Monitor {
 		// starts JMX
 		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
 		try {
-			ObjectName name = new ObjectName("com.dsf.dbxtract:type=InfoMBean");
-			mbs.registerMBean(new InfoMBean(config), name);
+			infoMBean = new InfoMBean(config);
+			mbs.registerMBean(infoMBean, new ObjectName(MBEAN_NAME));
 
 		} catch (Exception e) {
 			logger.error("failed to initialized mbeans", e);
 		}
+
+		// starts the metrics endpoint, if configured
+		try {
+			int port = config.getMetricsHttpPort();
+			if (port > 0)
+				metricsServer = new MetricsServer(config.getMetricsHttpAddress(), port);
+
+		} catch (ConfigurationException e) {
+			logger.error("failed to start metrics endpoint", e);
+		}
 	}
 
 	/**
@@ -67,7 +83,7 @@ public class Monitor {
 	 * @throws IOException
 	 *             on configuration file access
 	 */
-	public static Monitor getInstance(Config config) throws IOException {
+	public static synchronized Monitor getInstance(Config config) throws IOException {
 		if (instance == null) {
 			instance = new Monitor(config);
 		}
@@ -81,10 +97,48 @@ public class Monitor {
 	 *             when called before Monitor initialization (see
 	 *             {@link Monitor#getInstance(Config)})
 	 */
-	public static Monitor getInstance() throws MonitorNotInitializedException {
+	public static synchronized Monitor getInstance() throws MonitorNotInitializedException {
 		if (instance == null)
 			throw new MonitorNotInitializedException("Monitor not initialized.");
 
 		return instance;
 	}
+
+	/**
+	 * 
+	 * @return the metrics HTTP endpoint, or null if it's disabled
+	 */
+	public MetricsServer getMetricsServer() {
+		return metricsServer;
+	}
+
+	/**
+	 * Stops the monitor, if it was started: unregisters the JMX bean and stops
+	 * the metrics endpoint.
+	 */
+	public static synchronized void stop() {
+
+		if (instance == null)
+			return;
+		instance.close();
+		instance = null;
+	}
+
+	private void close() {
+
+		if (infoMBean != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+
+			} catch (Exception e) {
+				logger.warn("failed to unregister mbeans", e);
+			}
+			infoMBean.close();
+			infoMBean = null;
+		}
+		if (metricsServer != null) {
+			metricsServer.stop();
+			metricsServer = null;
+		}
+	}
 }
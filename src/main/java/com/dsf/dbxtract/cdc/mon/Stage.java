@@ -0,0 +1,35 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dsf.dbxtract.cdc.mon;
+
+/**
+ * Stages of a capture cycle with latency measured by {@link HandlerMetrics}:
+ * <ul>
+ * <li>QUEUE = a due cycle waiting for a thread of its data source</li>
+ * <li>LOCK = acquiring the journal's zookeeper lock</li>
+ * <li>JOURNAL = reading journal rows</li>
+ * <li>LOOKUP = retrieving changed data (target or join query)</li>
+ * <li>PUBLISH = a publish call, until its completion</li>
+ * <li>CLEANUP = removing captured rows from journal (DELETE strategy)</li>
+ * <li>CHECKPOINT = memorizing last captured window_id (WINDOW strategy)</li>
+ * <li>CYCLE = a whole capture cycle, while holding the lock</li>
+ * </ul>
+ * 
+ * @author fabio de santi
+ */
+public enum Stage {
+	QUEUE, LOCK, JOURNAL, LOOKUP, PUBLISH, CLEANUP, CHECKPOINT, CYCLE
+}
@@ -19,6 +19,13 @@ package com.dsf.dbxtract.cdc.mon;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -31,6 +38,10 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.BadVersionException;
+import org.apache.zookeeper.KeeperException.NodeExistsException;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.data.Stat;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -39,15 +50,28 @@ import com.dsf.dbxtract.cdc.App;
 /**
  * CDC cluster-aware session store for basic Handler's statistics.
  * 
+ * Captured rows are counted in memory, by lock-free counters, and merged into
+ * the cluster's statistics by a background timer (see
+ * {@link #start(CuratorFramework, long)}). Each handler's node is updated by a
+ * versioned compare-and-set, retried when another agent updated it first, so
+ * no update is lost.
+ * 
  * @author fabio de santi
- * @version 0.2
+ * @version 0.3
  */
 public class Statistics {
 
 	private static final Logger logger = LogManager.getLogger(Statistics.class.getName());
 	protected static final String ZOOPATH = App.BASEPREFIX + "/statistics";
 
+	private static final int MAX_RETRIES = 10;
+
+	private static Statistics instance = null;
+
 	private ObjectMapper mapper;
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+	private CuratorFramework client = null;
+	private ScheduledExecutorService timer = null;
 
 	/**
 	 * Constructor
@@ -57,30 +81,153 @@ public class Statistics {
 	}
 
 	/**
-	 * Updates statistics for a given handler.
+	 * 
+	 * @return the agent's {@link Statistics} object
+	 */
+	public static synchronized Statistics getInstance() {
+		if (instance == null)
+			instance = new Statistics();
+		return instance;
+	}
+
+	/**
+	 * Starts flushing counters to zookeeper periodically.
 	 * 
 	 * @param client
 	 *            zookeeper's connection
+	 * @param interval
+	 *            milliseconds between flushes
+	 */
+	public synchronized void start(CuratorFramework client, long interval) {
+
+		if (timer != null)
+			return;
+		this.client = client;
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "dbxtract-statistics");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic flush, writing pending counters.
+	 */
+	public synchronized void stop() {
+
+		if (timer == null)
+			return;
+		timer.shutdown();
+		try {
+			timer.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		timer = null;
+		flush();
+		client = null;
+	}
+
+	/**
+	 * Updates statistics for a given handler (in memory).
+	 * 
 	 * @param handler
 	 *            handler's name
 	 * @param rows
 	 *            number of rows captured. If zero, only lastSeek is updated,
 	 *            otherwise updates also lastRead.
 	 */
-	public void update(CuratorFramework client, String handler, int rows) {
+	public void update(String handler, int rows) {
+		counters.computeIfAbsent(handler, h -> new Counter()).increment(rows);
+	}
+
+	/**
+	 * Merges in-memory counters into zookeeper's statistics.
+	 */
+	public synchronized void flush() {
+
+		if (client == null)
+			return;
+		for (Map.Entry<String, Counter> e : counters.entrySet()) {
+			Counter counter = e.getValue();
+			long seek = counter.lastSeek.get();
+			if (seek == 0L)
+				continue;
+			long read = counter.lastRead.get();
+			// rows are only subtracted once saved: sumThenReset() would lose
+			// increments made while it runs, and unsaved rows stay counted
+			long rows = counter.rows.sum();
+			if (!merge(e.getKey(), rows, seek, read))
+				continue;
+			counter.rows.add(-rows);
+			counter.lastSeek.compareAndSet(seek, 0L);
+		}
+	}
+
+	/**
+	 * Merges counters into a handler's node, with versioned writes.
+	 * 
+	 * @return true if merged
+	 */
+	private boolean merge(String handler, long rows, long seek, long read) {
 
 		String path = ZOOPATH + "/" + handler;
 		try {
-			StatEntry entry = get(client, handler);
-			entry.increment(rows);
-			byte[] b = mapper.writeValueAsBytes(entry);
-			if (client.checkExists().forPath(path) == null)
-				client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(path);
-			client.setData().forPath(path, b);
+			for (int i = 0; i < MAX_RETRIES; i++) {
+				Stat stat = new Stat();
+				StatEntry entry = null;
+				try {
+					byte[] d = client.getData().storingStatIn(stat).forPath(path);
+					if (d != null && d.length > 0 && d[0] == '{')
+						entry = mapper.readValue(d, StatEntry.class);
+
+				} catch (NoNodeException nne) {
+					stat = null;
+
+				} catch (JsonMappingException e) {
+					logger.warn("invalid json at " + path, e);
+				}
+				if (entry == null)
+					entry = new StatEntry(handler);
+				entry.merge(rows, seek, read);
+				byte[] b = mapper.writeValueAsBytes(entry);
+
+				try {
+					if (stat == null)
+						client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(path, b);
+					else
+						client.setData().withVersion(stat.getVersion()).forPath(path, b);
+					return true;
+
+				} catch (BadVersionException | NodeExistsException e) {
+					if (logger.isDebugEnabled())
+						logger.debug("concurrent update of " + path + ", retrying");
+				}
+			}
+			logger.warn("Failed to save " + path + ": too many concurrent updates");
 
 		} catch (Exception e) {
 			logger.error("Failed to save " + path, e);
-			return;
+		}
+		return false;
+	}
+
+	/**
+	 * In-memory counters of a handler.
+	 */
+	private static class Counter {
+
+		private final LongAdder rows = new LongAdder();
+		private final AtomicLong lastSeek = new AtomicLong();
+		private final AtomicLong lastRead = new AtomicLong();
+
+		void increment(int n) {
+			long now = System.currentTimeMillis();
+			rows.add(n);
+			if (n > 0)
+				lastRead.accumulateAndGet(now, Math::max);
+			lastSeek.accumulateAndGet(now, Math::max);
 		}
 	}
 
@@ -199,6 +346,24 @@ public class Statistics {
 				this.lastRead = new Date();
 		}
 
+		/**
+		 * Add counters collected by an agent to handler's statistics.
+		 * 
+		 * @param rows
+		 *            number of rows captured
+		 * @param seek
+		 *            last capture attempt timestamp (milliseconds)
+		 * @param read
+		 *            last successful capture timestamp (milliseconds) or 0
+		 */
+		protected void merge(long rows, long seek, long read) {
+			this.readCount += rows;
+			if (lastSeek == null || lastSeek.getTime() < seek)
+				this.lastSeek = new Date(seek);
+			if (read > 0 && (lastRead == null || lastRead.getTime() < read))
+				this.lastRead = new Date(read);
+		}
+
 		@Override
 		public String toString() {
 			return "StatEntry [name=" + name + ", lastSeek=" + lastSeek + ", lastRead=" + lastRead + ", readCount="
@@ -110,6 +110,73 @@ public class NamedParameterStatement {
 		return parsedQuery.toString();
 	}
 
+	/**
+	 * Repeats a named parameter query <code>copies</code> times, joining each
+	 * copy with <code>UNION ALL</code>. Every named parameter of the n-th copy
+	 * is renamed as {@link #getCopyParamName(String, int)} so each copy can be
+	 * bound to a different set of values, allowing many lookups to be done in
+	 * a single database round trip.
+	 *
+	 * @param query
+	 *            query with named parameters
+	 * @param copies
+	 *            number of copies (must be at least 1)
+	 * @return the expanded query, still with named parameters
+	 */
+	public static final String unionAll(String query, int copies) {
+
+		if (copies < 1)
+			throw new IllegalArgumentException("copies must be a positive integer");
+
+		StringBuilder sb = new StringBuilder((query.length() + 16) * copies);
+		for (int i = 0; i < copies; i++) {
+			if (i > 0)
+				sb.append(" UNION ALL ");
+			sb.append('(');
+			renameParams(query, i, sb);
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Name of a parameter in the n-th copy of a query expanded by
+	 * {@link #unionAll(String, int)}.
+	 *
+	 * @param name
+	 *            original parameter name
+	 * @param copy
+	 *            zero-based copy index
+	 * @return parameter name for the given copy
+	 */
+	public static final String getCopyParamName(String name, int copy) {
+		return name + '$' + copy;
+	}
+
+	private static void renameParams(String query, int copy, StringBuilder sb) {
+
+		int length = query.length();
+		int start;
+		int k = 0;
+		while (k < length) {
+			start = k;
+			char c = query.charAt(k);
+			if (c == '\'' || c == '\"') {
+				k = skip(query, k, c);
+				sb.append(query.substring(start, k--));
+
+			} else if (c == ':' && k + 1 < length && Character.isJavaIdentifierStart(query.charAt(k + 1))) {
+				String name = getParamName(query, k);
+				sb.append(':').append(getCopyParamName(name, copy));
+				k += name.length();
+
+			} else {
+				sb.append(c);
+			}
+			k++;
+		}
+	}
+
 	private static List<Integer> getListItemFromMap(Map<String, List<Integer>> paramMap, String name) {
 
 		List<Integer> indexList = paramMap.get(name);
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.dsf.dbxtract.cdc.journal.CaptureResult;
+import com.dsf.dbxtract.cdc.journal.JournalExecutor;
+import com.dsf.dbxtract.cdc.sample.TestHandler;
+
+public class AdaptiveSchedulerTest {
+
+	@Test
+	public void testFullBatch() {
+		Assert.assertEquals(AdaptiveScheduler.nextDelay(CaptureResult.FULL, 1000L, 1000L, 8000L), 0L);
+		Assert.assertEquals(AdaptiveScheduler.nextDelay(CaptureResult.FULL, 8000L, 1000L, 8000L), 0L);
+	}
+
+	@Test
+	public void testBackoff() {
+		long delay = 0L;
+		long[] expected = { 1000L, 2000L, 4000L, 8000L, 8000L };
+		for (long e : expected) {
+			delay = AdaptiveScheduler.nextDelay(CaptureResult.EMPTY, delay, 1000L, 8000L);
+			Assert.assertEquals(delay, e);
+		}
+		Assert.assertEquals(AdaptiveScheduler.nextDelay(CaptureResult.FAILED, 2000L, 1000L, 8000L), 4000L);
+	}
+
+	@Test
+	public void testReset() {
+		Assert.assertEquals(AdaptiveScheduler.nextDelay(CaptureResult.PARTIAL, 8000L, 1000L, 8000L), 1000L);
+		Assert.assertEquals(AdaptiveScheduler.nextDelay(CaptureResult.SKIPPED, 0L, 1000L, 8000L), 1000L);
+		Assert.assertEquals(AdaptiveScheduler.nextDelay(CaptureResult.LOCKED, 4000L, 1000L, 8000L), 1000L);
+	}
+
+	@Test
+	public void testTargetLatency() {
+		Assert.assertEquals(AdaptiveScheduler.capInterval(1000L, 0L), 1000L);
+		Assert.assertEquals(AdaptiveScheduler.capInterval(1000L, 500L), 250L);
+		Assert.assertEquals(AdaptiveScheduler.capInterval(1000L, 5000L), 1000L);
+	}
+
+	@Test
+	public void testWeightedFairQueue() {
+
+		WeightedFairQueue<String> queue = new WeightedFairQueue<>();
+		WeightedFairQueue.Flow high = new WeightedFairQueue.Flow(3);
+		WeightedFairQueue.Flow low = new WeightedFairQueue.Flow(1);
+		WeightedFairQueue.Flow slow = new WeightedFairQueue.Flow(3);
+		queue.add("high", high, 10L);
+		queue.add("low", low, 10L);
+		queue.add("slow", slow, 40L);
+
+		// each cycle is queued again as soon as it ends, like a busy handler
+		Map<String, Integer> runs = new HashMap<>();
+		for (int i = 0; i < 80; i++) {
+			String item = queue.poll();
+			runs.merge(item, 1, Integer::sum);
+			if ("high".equals(item))
+				queue.add(item, high, 10L);
+			else if ("low".equals(item))
+				queue.add(item, low, 10L);
+			else
+				queue.add(item, slow, 40L);
+		}
+		// thread time is shared by weight, whatever each cycle costs
+		Assert.assertTrue(Math.abs(runs.get("high") - 3 * runs.get("low")) <= 3, runs.toString());
+		Assert.assertTrue(Math.abs(runs.get("high") - 4 * runs.get("slow")) <= 4, runs.toString());
+		Assert.assertEquals(queue.size(), 3);
+
+		// an idle flow doesn't accumulate credit
+		WeightedFairQueue.Flow idle = new WeightedFairQueue.Flow(1);
+		queue.add("idle", idle, 10L);
+		int before = 0;
+		String item;
+		while (!"idle".equals(item = queue.poll())) {
+			before++;
+			queue.add(item, "high".equals(item) ? high : "low".equals(item) ? low : slow, 10L);
+		}
+		Assert.assertTrue(before <= 5, Integer.toString(before));
+	}
+
+	@Test
+	public void testSourceLanes() throws Exception {
+
+		Source slow = new Source("slow", "jdbc:none", "none", "sa", "", Arrays.asList(TestHandler.class.getName()));
+		slow.setMaxConcurrency(1);
+		Source fast = new Source("fast", "jdbc:none", "none", "sa", "", Arrays.asList(TestHandler.class.getName()));
+
+		// client is never started: cycles are skipped
+		CuratorFramework client = CuratorFrameworkFactory.newClient("localhost:1", new RetryOneTime(1));
+		AdaptiveScheduler scheduler = new AdaptiveScheduler(3, 1000L, 1000L);
+		try {
+			JournalExecutor executor = new JournalExecutor("test", client, new TestHandler(), slow);
+			scheduler.schedule(executor);
+			scheduler.schedule(new JournalExecutor("test", client, new TestHandler(), fast));
+
+			Assert.assertNotSame(scheduler.getLane(slow), scheduler.getLane(fast));
+			Assert.assertEquals(scheduler.getLane(slow).getConcurrency(), 1);
+			Assert.assertEquals(scheduler.getLane(fast).getConcurrency(), 3);
+
+			// configuration changes
+			slow.setMaxConcurrency(2);
+			scheduler.resize(slow);
+			Assert.assertEquals(scheduler.getLane(slow).getConcurrency(), 2);
+			Assert.assertTrue(scheduler.unschedule(executor, 5, TimeUnit.SECONDS));
+
+		} finally {
+			scheduler.shutdown(5, TimeUnit.SECONDS);
+			client.close();
+		}
+		Assert.assertTrue(scheduler.getLane(slow).isShutdown());
+	}
+
+	@Test
+	public void testExecutionMode() throws Exception {
+
+		// virtual threads fall back to platform threads before Java 21
+		boolean supported = AdaptiveScheduler.newVirtualThreadExecutor() != null;
+		AdaptiveScheduler scheduler = new AdaptiveScheduler(3, 1000L, 1000L, AdaptiveScheduler.ExecutionMode.VIRTUAL);
+		try {
+			Assert.assertEquals(scheduler.getMode(), supported ? AdaptiveScheduler.ExecutionMode.VIRTUAL
+					: AdaptiveScheduler.ExecutionMode.PLATFORM);
+
+			Source source = new Source("test", "jdbc:none", "none", "sa", "", Arrays.asList(TestHandler.class.getName()));
+			source.setPoolMaxTotal(20);
+			Assert.assertEquals(scheduler.getLane(source).getConcurrency(), supported ? 20 : 3);
+
+		} finally {
+			scheduler.shutdown(5, TimeUnit.SECONDS);
+		}
+	}
+}
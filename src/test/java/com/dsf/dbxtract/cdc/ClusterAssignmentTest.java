@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.dsf.dbxtract.cdc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ClusterAssignmentTest {
+
+	private static Set<String> tasks(String... ids) {
+		return new TreeSet<>(Arrays.asList(ids));
+	}
+
+	@Test
+	public void testBalanced() {
+
+		Map<String, Set<String>> capable = new TreeMap<>();
+		capable.put("a", tasks("s/t1", "s/t2", "s/t3", "s/t4"));
+		capable.put("b", tasks("s/t1", "s/t2", "s/t3", "s/t4"));
+
+		Map<String, List<String>> result = ClusterAssignment.assign(capable, Collections.emptyMap());
+		Assert.assertEquals(result.get("a").size(), 2);
+		Assert.assertEquals(result.get("b").size(), 2);
+		Set<String> all = new TreeSet<>(result.get("a"));
+		all.addAll(result.get("b"));
+		Assert.assertEquals(all, capable.get("a"));
+	}
+
+	@Test
+	public void testSticky() {
+
+		Map<String, Set<String>> capable = new TreeMap<>();
+		capable.put("a", tasks("s/t1", "s/t2", "s/t3", "s/t4"));
+		capable.put("b", tasks("s/t1", "s/t2", "s/t3", "s/t4"));
+		Map<String, List<String>> previous = new TreeMap<>();
+		previous.put("a", Arrays.asList("s/t2", "s/t4"));
+		previous.put("b", Arrays.asList("s/t1", "s/t3"));
+
+		Assert.assertEquals(ClusterAssignment.assign(capable, previous), previous);
+	}
+
+	@Test
+	public void testMembershipChange() {
+
+		Map<String, Set<String>> capable = new TreeMap<>();
+		capable.put("a", tasks("s/t1", "s/t2", "s/t3", "s/t4"));
+		Map<String, List<String>> previous = new TreeMap<>();
+		previous.put("a", Arrays.asList("s/t1", "s/t2"));
+		previous.put("b", Arrays.asList("s/t3", "s/t4"));
+
+		// b has left: its tasks go to a
+		Map<String, List<String>> result = ClusterAssignment.assign(capable, previous);
+		Assert.assertEquals(result.keySet(), tasks("a"));
+		Assert.assertEquals(result.get("a"), Arrays.asList("s/t1", "s/t2", "s/t3", "s/t4"));
+
+		// c has joined: a keeps its share, c receives the others
+		capable.put("c", tasks("s/t1", "s/t2", "s/t3", "s/t4"));
+		result = ClusterAssignment.assign(capable, result);
+		Assert.assertEquals(result.get("a"), Arrays.asList("s/t1", "s/t2"));
+		Assert.assertEquals(result.get("c"), Arrays.asList("s/t3", "s/t4"));
+	}
+
+	@Test
+	public void testAffinity() {
+
+		Map<String, Set<String>> capable = new TreeMap<>();
+		capable.put("a", tasks("s1/t1", "s1/t2"));
+		capable.put("b", tasks("s2/t1"));
+
+		Map<String, List<String>> result = ClusterAssignment.assign(capable, Collections.emptyMap());
+		Assert.assertEquals(result.get("a"), Arrays.asList("s1/t1", "s1/t2"));
+		Assert.assertEquals(result.get("b"), Arrays.asList("s2/t1"));
+	}
+}
@@ -0,0 +1,50 @@
+package com.dsf.dbxtract.cdc;
+
+import java.sql.Types;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ColumnarDataTest {
+
+	private static final String[] COLUMNS = new String[] { "id", "code", "amount", "name", "other" };
+	private static final int[] TYPES = new int[] { Types.BIGINT, Types.INTEGER, Types.DOUBLE, Types.VARCHAR,
+			Types.DECIMAL };
+
+	@Test
+	public void testAppendObjectArray() throws Exception {
+		ColumnarData data = new ColumnarData(COLUMNS, TYPES);
+		for (int i = 0; i < 200; i++)
+			data.append(new Object[] { (long) i, i, i / 2.0, "n" + (i % 3), null });
+		Assert.assertEquals(data.size(), 200);
+		Assert.assertEquals(data.getLong(150, 0), 150L);
+		Assert.assertEquals(data.getDouble(151, 2), 75.5d);
+		Assert.assertEquals(data.getString(152, 3), "n2");
+		Assert.assertTrue(data.isNull(153, 4));
+		Assert.assertFalse(data.isNull(153, 0));
+		try {
+			data.append(new Object[] { "x", 1, 1.0, "a", null });
+			Assert.fail("cannot accept a string in a numeric column");
+		} catch (DataColumnMatchException e) {
+		}
+		try {
+			data.append(new Object[] { 1L });
+			Assert.fail("cannot accept less data than declared columns");
+		} catch (DataColumnMatchException e) {
+		}
+		Assert.assertEquals(data.size(), 200);
+	}
+
+	@Test
+	public void testGetRows() throws Exception {
+		ColumnarData data = new ColumnarData(COLUMNS, TYPES);
+		data.append(new Object[] { 1L, 2, 3.0, "a", null });
+		data.append(new Object[] { null, null, null, null, "x" });
+		List<Object[]> rows = data.getRows();
+		Assert.assertEquals(rows.size(), 2);
+		Assert.assertEquals(rows.get(0), new Object[] { 1L, 2, 3.0, "a", null });
+		Assert.assertEquals(rows.get(1), new Object[] { null, null, null, null, "x" });
+		Assert.assertTrue(rows.get(0)[1] instanceof Integer);
+	}
+}
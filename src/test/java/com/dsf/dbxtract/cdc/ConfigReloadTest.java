@@ -0,0 +1,150 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.dsf.dbxtract.cdc.journal.JournalHandler;
+import com.dsf.dbxtract.cdc.sample.TestHandler;
+
+public class ConfigReloadTest {
+
+	private static final String HANDLER = TestHandler.class.getName();
+
+	private static void write(File f, String zookeeper, String sources, String... entries) throws IOException {
+		try (FileWriter fw = new FileWriter(f)) {
+			fw.append("zookeeper=").append(zookeeper).append("\ninterval=1000\nsources=").append(sources);
+			for (String entry : entries) {
+				fw.append('\n').append(entry);
+			}
+			fw.append('\n');
+		}
+	}
+
+	private static String[] source(String name, String connection, int poolMaxTotal) {
+		String key = "source." + name + ".";
+		return new String[] { key + "connection=" + connection, key + "driver=none", key + "user=sa",
+				key + "password=", key + "handlers=" + HANDLER, key + "pool.max.total=" + poolMaxTotal };
+	}
+
+	private static String[] concat(String[] a, String[] b) {
+		String[] c = new String[a.length + b.length];
+		System.arraycopy(a, 0, c, 0, a.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	@Test
+	public void testReload() throws Exception {
+
+		File f = File.createTempFile("config", ".properties");
+		f.deleteOnExit();
+		write(f, "localhost:2181", "a", source("a", "jdbc:none:a", 4));
+		Config config = new Config(f.getAbsolutePath());
+		JournalHandler handler = config.getHandlers().iterator().next();
+		Assert.assertTrue(config.reload().isEmpty());
+
+		// a new source, a resized pool and a property applied at restart
+		write(f, "localhost:2182", "a,b", concat(source("a", "jdbc:none:a", 8), source("b", "jdbc:none:b", 4)));
+		ConfigChange change = config.reload();
+		Assert.assertEquals(change.getAddedHandlers().size(), 1);
+		Assert.assertEquals(change.getAddedHandlers().values().iterator().next().getName(), "b");
+		Assert.assertTrue(change.getRemovedHandlers().isEmpty());
+		Assert.assertTrue(change.getRemovedSources().isEmpty());
+		Assert.assertEquals(change.getResizedSources().size(), 1);
+		Assert.assertEquals(change.getResizedSources().get(0).getPoolMaxTotal(), 8);
+		Assert.assertTrue(change.getRestartProperties().contains("zookeeper"));
+		Assert.assertEquals(config.getHandlers().size(), 2);
+		// kept handlers aren't instantiated again
+		Assert.assertTrue(config.getHandlers().contains(handler));
+		Assert.assertEquals(config.getSourceByHandler(handler).getPoolMaxTotal(), 8);
+		Assert.assertEquals(config.getZooKeeper(), "localhost:2182");
+
+		// a removed source and a new connection
+		write(f, "localhost:2182", "a", source("a", "jdbc:none:other", 8));
+		change = config.reload();
+		Assert.assertEquals(change.getRemovedHandlers().size(), 2);
+		Assert.assertTrue(change.getRemovedHandlers().containsKey(handler));
+		Assert.assertEquals(change.getRemovedSources().size(), 2);
+		Assert.assertEquals(change.getAddedHandlers().size(), 1);
+		Assert.assertFalse(config.getHandlers().contains(handler));
+
+		// an invalid file keeps the current configuration
+		write(f, "localhost:2182", "a");
+		try {
+			config.reload();
+			Assert.fail("invalid configuration accepted");
+		} catch (ConfigurationException e) {
+			Assert.assertEquals(config.getHandlers().size(), 1);
+		}
+	}
+
+	/**
+	 * A partitioned handler without partition key.
+	 */
+	public static class UnkeyedHandler extends TestHandler {
+		@Override
+		public int getPartitions() {
+			return 2;
+		}
+	}
+
+	@Test(expectedExceptions = ConfigurationException.class)
+	public void testPartitionKeyRequired() throws Exception {
+
+		File f = File.createTempFile("config", ".properties");
+		f.deleteOnExit();
+		String[] entries = source("a", "jdbc:none:a", 4);
+		entries[4] = "source.a.handlers=" + UnkeyedHandler.class.getName();
+		write(f, "localhost:2181", "a", entries);
+		new Config(f.getAbsolutePath());
+	}
+
+	@Test
+	public void testWatcher() throws Exception {
+
+		File f = File.createTempFile("config", ".properties");
+		f.deleteOnExit();
+		write(f, "localhost:2181", "a", source("a", "jdbc:none:a", 4));
+		Config config = new Config(f.getAbsolutePath());
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicReference<ConfigChange> received = new AtomicReference<>();
+		config.addListener(change -> {
+			received.set(change);
+			latch.countDown();
+		});
+
+		ConfigWatcher watcher = new ConfigWatcher(config);
+		watcher.start();
+		try {
+			write(f, "localhost:2181", "a", source("a", "jdbc:none:a", 6));
+			Assert.assertTrue(latch.await(30, TimeUnit.SECONDS), "change not detected");
+			Assert.assertEquals(received.get().getResizedSources().get(0).getPoolMaxTotal(), 6);
+
+		} finally {
+			watcher.close();
+		}
+	}
+}
@@ -66,4 +66,12 @@ public class SourceTest {
 		Assert.assertEquals(src.getHandlers().size(), 5);
 		Assert.assertEquals(src.getHandlers().get(1), "h2");
 	}
+
+	@Test
+	public void testEquals() {
+		Source other = new Source("a", "c", "d", "u", "p", null);
+		Assert.assertEquals(src, other);
+		Assert.assertEquals(src.hashCode(), other.hashCode());
+		Assert.assertNotEquals(src, new Source("a", "c2", "d", "u", "p", null));
+	}
 }
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.dsf.dbxtract.cdc.Data;
+
+public class JournalCleanerTest {
+
+	private static JournalCleaner cleaner;
+
+	@BeforeTest
+	public void setUp() throws Exception {
+		cleaner = new JournalCleaner(new JournalHandler() {
+
+			@Override
+			public String getJournalTable() {
+				return "j$test";
+			}
+
+			@Override
+			public int getBatchSize() {
+				return 10;
+			}
+
+			@Override
+			public String getTargetQuery() {
+				return "select * from test where key1 = :key1";
+			}
+
+			@Override
+			public void publish(Data data) {
+			}
+
+			@Override
+			public JournalStrategy getStrategy() {
+				return JournalStrategy.DELETE;
+			}
+		}, "test :: ");
+	}
+
+	@Test
+	public void testSingleKey() {
+		Assert.assertEquals(cleaner.getDeleteStatement(Arrays.asList("window_id"), 3),
+				"delete from j$test where window_id in (?,?,?)");
+	}
+
+	@Test
+	public void testCompositeKey() {
+		Assert.assertEquals(cleaner.getDeleteStatement(Arrays.asList("key1", "key2"), 2),
+				"delete from j$test where (key1=? and key2=?) or (key1=? and key2=?)");
+	}
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.KillSession;
+import org.apache.curator.test.TestingServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.dsf.dbxtract.cdc.App;
+import com.dsf.dbxtract.cdc.ConnectionPools;
+import com.dsf.dbxtract.cdc.Data;
+import com.dsf.dbxtract.cdc.Source;
+
+/**
+ * Capture cycles against an embedded H2 database and ZooKeeper server.
+ */
+public class JournalExecutorTest {
+
+	private static final String URL = "jdbc:h2:mem:journal-executor;DB_CLOSE_DELAY=-1";
+
+	private TestingServer zookeeper;
+	private CuratorFramework client;
+	private Connection conn;
+	private Source source;
+
+	/**
+	 * Handler recording the captured keys of each publish call.
+	 */
+	static class RecordingHandler implements JournalHandler {
+
+		int batchSize = 10;
+		int publishChunkSize = 0;
+		int pipelineDepth = 0;
+		int partitions = 1;
+		String joinQuery = "select j.window_id, t.* from j$test j join test t on t.key1 = j.key1"
+				+ " where j.window_id > :window_id order by j.window_id, j.key1";
+		final List<List<Integer>> calls = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public String getJournalTable() {
+			return "j$test";
+		}
+
+		@Override
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		@Override
+		public String getTargetQuery() {
+			return "select * from test where key1 = :key1";
+		}
+
+		@Override
+		public String getJoinQuery() {
+			return joinQuery;
+		}
+
+		@Override
+		public int getPublishChunkSize() {
+			return publishChunkSize;
+		}
+
+		@Override
+		public int getPartitions() {
+			return partitions;
+		}
+
+		@Override
+		public String getPartitionKey() {
+			return "part";
+		}
+
+		@Override
+		public int getPipelineDepth() {
+			return pipelineDepth;
+		}
+
+		@Override
+		public void publish(Data data) {
+			int col = 0;
+			while (!"key1".equalsIgnoreCase(data.getColumnNames()[col]))
+				col++;
+			List<Integer> keys = new ArrayList<>();
+			for (Object[] row : data.getRows())
+				keys.add(((Number) row[col]).intValue());
+			calls.add(keys);
+		}
+
+		@Override
+		public JournalStrategy getStrategy() {
+			return JournalStrategy.WINDOW;
+		}
+
+		List<Integer> getKeys() {
+			List<Integer> keys = new ArrayList<>();
+			for (List<Integer> call : calls)
+				keys.addAll(call);
+			return keys;
+		}
+	}
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		zookeeper = new TestingServer(true);
+		client = CuratorFrameworkFactory.newClient(zookeeper.getConnectString(), new RetryOneTime(100));
+		client.start();
+		client.blockUntilConnected();
+		conn = DriverManager.getConnection(URL, "sa", "");
+		source = new Source("test", URL, "org.h2.Driver", "sa", "", Collections.emptyList());
+	}
+
+	@AfterClass
+	public void tearDown() throws Exception {
+		ConnectionPools.getInstance().close(source);
+		conn.close();
+		client.close();
+		zookeeper.close();
+	}
+
+	@BeforeMethod
+	public void clean() throws Exception {
+		try (Statement st = conn.createStatement()) {
+			st.execute("drop table if exists test");
+			st.execute("drop table if exists j$test");
+			st.execute("create table test (key1 int primary key, data varchar(10))");
+			st.execute("create table j$test (window_id int not null, key1 int not null)");
+		}
+		if (client.checkExists().forPath(App.BASEPREFIX) != null)
+			client.delete().deletingChildrenIfNeeded().forPath(App.BASEPREFIX);
+	}
+
+	/**
+	 * Inserts windows of the given sizes, with consecutive keys.
+	 */
+	private int insertWindows(int... sizes) throws Exception {
+		int key = 0;
+		try (PreparedStatement data = conn.prepareStatement("insert into test values (?, 'x')");
+				PreparedStatement journal = conn.prepareStatement("insert into j$test values (?, ?)")) {
+			for (int w = 0; w < sizes.length; w++) {
+				for (int i = 0; i < sizes[w]; i++, key++) {
+					data.setInt(1, key);
+					data.executeUpdate();
+					journal.setInt(1, w + 1);
+					journal.setInt(2, key);
+					journal.executeUpdate();
+				}
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Runs capture cycles until the journal is drained.
+	 */
+	private void drain(JournalExecutor executor) {
+		for (int i = 0; i < 100; i++) {
+			CaptureResult result = executor.execute();
+			Assert.assertNotEquals(result, CaptureResult.FAILED);
+			if (result == CaptureResult.EMPTY)
+				return;
+		}
+		Assert.fail("journal not drained");
+	}
+
+	private static void assertCapturedOnce(List<Integer> keys, int count) {
+		List<Integer> sorted = new ArrayList<>(keys);
+		Collections.sort(sorted);
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			expected.add(i);
+		Assert.assertEquals(sorted, expected);
+	}
+
+	@Test
+	public void testWindowCut() throws Exception {
+		int count = insertWindows(3, 4, 6, 2);
+		RecordingHandler handler = new RecordingHandler();
+		JournalExecutor executor = new JournalExecutor("test", client, handler, source);
+		try {
+			// the third window doesn't fit: it's held back whole
+			Assert.assertEquals(executor.execute(), CaptureResult.FULL);
+			Assert.assertEquals(handler.getKeys().size(), 7);
+			drain(executor);
+			assertCapturedOnce(handler.getKeys(), count);
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	public void testOversizedWindow() throws Exception {
+		int count = insertWindows(25, 20);
+		RecordingHandler handler = new RecordingHandler();
+		JournalExecutor executor = new JournalExecutor("test", client, handler, source);
+		try {
+			// windows larger than the batch size are captured whole
+			Assert.assertEquals(executor.execute(), CaptureResult.FULL);
+			Assert.assertEquals(handler.getKeys().size(), 25);
+			drain(executor);
+			assertCapturedOnce(handler.getKeys(), count);
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	public void testPublishChunks() throws Exception {
+		int count = insertWindows(3, 4, 6, 2, 5, 1, 1, 9);
+		RecordingHandler handler = new RecordingHandler();
+		handler.publishChunkSize = 4;
+		JournalExecutor executor = new JournalExecutor("test", client, handler, source);
+		try {
+			drain(executor);
+			assertCapturedOnce(handler.getKeys(), count);
+			for (List<Integer> call : handler.calls)
+				Assert.assertTrue(call.size() <= 4, "chunk of " + call.size() + " rows");
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	public void testPipelinedWithoutBudget() throws Exception {
+		int count = insertWindows(5, 5, 5, 5, 5, 5);
+		RecordingHandler handler = new RecordingHandler();
+		handler.pipelineDepth = 2;
+		JournalExecutor executor = new JournalExecutor("test", client, handler, source);
+		try {
+			// without a drain budget a cycle captures a single batch
+			Assert.assertEquals(executor.execute(), CaptureResult.FULL);
+			Assert.assertEquals(handler.getKeys().size(), 10);
+			drain(executor);
+			assertCapturedOnce(handler.getKeys(), count);
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	public void testUnorderedJoin() throws Exception {
+		insertWindows(2, 2);
+		RecordingHandler handler = new RecordingHandler();
+		handler.joinQuery = "select j.window_id, t.* from j$test j join test t on t.key1 = j.key1"
+				+ " where j.window_id > :window_id order by j.window_id desc";
+		JournalExecutor executor = new JournalExecutor("test", client, handler, source);
+		try {
+			Assert.assertEquals(executor.execute(), CaptureResult.FAILED);
+			Assert.assertTrue(handler.calls.isEmpty());
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	public void testPartitionKeyNullOrNegative() throws Exception {
+		Integer[] parts = { null, -1, -2, -3, -4, 0, 1, 2, 5 };
+		try (Statement st = conn.createStatement()) {
+			st.execute("alter table j$test add part int");
+		}
+		try (PreparedStatement data = conn.prepareStatement("insert into test values (?, 'x')");
+				PreparedStatement journal = conn.prepareStatement("insert into j$test values (?, ?, ?)")) {
+			for (int key = 0; key < parts.length; key++) {
+				data.setInt(1, key);
+				data.executeUpdate();
+				journal.setInt(1, key + 1);
+				journal.setInt(2, key);
+				journal.setObject(3, parts[key]);
+				journal.executeUpdate();
+			}
+		}
+		RecordingHandler handler = new RecordingHandler();
+		handler.joinQuery = null;
+		handler.partitions = 3;
+		// every journal row belongs to exactly one partition
+		for (int p = 0; p < handler.partitions; p++) {
+			JournalExecutor executor = new JournalExecutor("test", client, handler, source, p);
+			try {
+				drain(executor);
+			} finally {
+				executor.close();
+			}
+		}
+		assertCapturedOnce(handler.getKeys(), parts.length);
+	}
+
+	@Test
+	public void testLockWatchAfterSessionExpired() throws Exception {
+		CuratorFramework session = CuratorFrameworkFactory.newClient(zookeeper.getConnectString(),
+				new RetryOneTime(100));
+		CuratorFramework other = CuratorFrameworkFactory.newClient(zookeeper.getConnectString(),
+				new RetryOneTime(100));
+		session.start();
+		other.start();
+		JournalExecutor executor = new JournalExecutor("test", session, new RecordingHandler(), source);
+		InterProcessMutex lock = new InterProcessMutex(other, App.BASEPREFIX + "/test/j$test/lock");
+		Semaphore woken = new Semaphore(0);
+		executor.setLockListener(woken::release);
+		try {
+			session.blockUntilConnected();
+			lock.acquire();
+			Assert.assertEquals(executor.execute(), CaptureResult.LOCKED);
+
+			// an expired session drops the lock's watch, the next cycle leaves a new one
+			KillSession.kill(session.getZookeeperClient().getZooKeeper(), zookeeper.getConnectString());
+			CaptureResult result = null;
+			for (int i = 0; i < 100 && result != CaptureResult.LOCKED; i++) {
+				Thread.sleep(100L);
+				result = executor.execute();
+			}
+			Assert.assertEquals(result, CaptureResult.LOCKED);
+			woken.drainPermits();
+
+			lock.release();
+			Assert.assertTrue(woken.tryAcquire(10L, TimeUnit.SECONDS), "not woken when the lock was released");
+		} finally {
+			executor.close();
+			other.close();
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.dsf.dbxtract.cdc.PublishException;
+
+public class PublishPipelineTest {
+
+	@Test
+	public void testFailedTask() throws Exception {
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			PublishPipeline pipeline = new PublishPipeline(executor, 2);
+			AtomicReference<CompletableFuture<Void>> commits = new AtomicReference<>(
+					CompletableFuture.completedFuture(null));
+			AtomicBoolean committed = new AtomicBoolean(false);
+
+			// a checkpoint chained by a task, still running when a later task
+			// fails
+			pipeline.submit(() -> commits.set(CompletableFuture.runAsync(() -> {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				committed.set(true);
+			})));
+			pipeline.submit(() -> {
+				throw new PublishException("sink failure");
+			});
+			try {
+				pipeline.close(commits::get);
+				Assert.fail("task failure not reported");
+			} catch (PublishException e) {
+				Assert.assertEquals(e.getMessage(), "sink failure");
+			}
+			Assert.assertTrue(committed.get(), "chained commit still running");
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
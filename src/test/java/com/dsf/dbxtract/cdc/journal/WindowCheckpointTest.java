@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.journal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.dsf.dbxtract.cdc.Data;
+
+public class WindowCheckpointTest {
+
+	private static JournalHandler handler(long interval, int batches) {
+		return new JournalHandler() {
+
+			@Override
+			public String getJournalTable() {
+				return "j$test";
+			}
+
+			@Override
+			public int getBatchSize() {
+				return 10;
+			}
+
+			@Override
+			public String getTargetQuery() {
+				return "select * from test where key1 = :key1";
+			}
+
+			@Override
+			public long getCheckpointInterval() {
+				return interval;
+			}
+
+			@Override
+			public int getCheckpointBatches() {
+				return batches;
+			}
+
+			@Override
+			public void publish(Data data) {
+			}
+
+			@Override
+			public JournalStrategy getStrategy() {
+				return JournalStrategy.WINDOW;
+			}
+		};
+	}
+
+	@Test
+	public void testEveryBatch() {
+		WindowCheckpoint checkpoint = new WindowCheckpoint(null, "/test", handler(0L, 1));
+		Assert.assertTrue(checkpoint.isDue(System.currentTimeMillis()));
+	}
+
+	@Test
+	public void testBatchesOnly() throws Exception {
+
+		// no zookeeper client: any write would fail
+		WindowCheckpoint checkpoint = new WindowCheckpoint(null, "/test", handler(0L, 10));
+		long now = System.currentTimeMillis();
+		for (int i = 1; i < 10; i++) {
+			checkpoint.update(i);
+			Assert.assertFalse(checkpoint.isDue(now + 3600000L));
+		}
+		Assert.assertEquals(checkpoint.get(), 9L);
+	}
+
+	@Test
+	public void testIntervalOnly() throws Exception {
+
+		WindowCheckpoint checkpoint = new WindowCheckpoint(null, "/test", handler(60000L, 1));
+		long now = System.currentTimeMillis();
+		for (int i = 1; i <= 100; i++) {
+			checkpoint.update(i);
+		}
+		Assert.assertFalse(checkpoint.isDue(now));
+		Assert.assertTrue(checkpoint.isDue(now + 60000L));
+		Assert.assertEquals(checkpoint.get(), 100L);
+	}
+}
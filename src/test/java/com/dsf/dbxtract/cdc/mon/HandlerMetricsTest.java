@@ -0,0 +1,43 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.mon;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HandlerMetricsTest {
+
+	@Test
+	public void testPartitions() throws InterruptedException {
+		HandlerMetrics m = new HandlerMetrics("test");
+		Assert.assertEquals(m.getLastWindowId(), -1L);
+		Assert.assertEquals(m.getJournalLag(), 0L);
+
+		m.setLastWindowId("src/j/p0", 100L);
+		m.setLastWindowId("src/j/p1", 40L);
+		m.setLastWindowId("src/j/p0", 120L);
+		Assert.assertEquals(m.getLastWindowId(), 40L);
+
+		m.cycle("src/j/p0", "FULL", true);
+		Thread.sleep(20L);
+		m.cycle("src/j/p1", "PARTIAL", false);
+		Assert.assertTrue(m.getJournalLag() >= 20L, "lag=" + m.getJournalLag());
+		m.cycle("src/j/p0", "PARTIAL", false);
+		Assert.assertEquals(m.getJournalLag(), 0L);
+		Assert.assertEquals(m.getCycles().get("PARTIAL"), Long.valueOf(2L));
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016 Fabio De Santi
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dsf.dbxtract.cdc.mon;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		long[] values = { 0L, 1L, 15L, 16L, 17L, 100L, 1000L, 123456L, 1L << 40, Long.MAX_VALUE };
+		for (long v : values) {
+			int bucket = LatencyHistogram.getBucket(v);
+			Assert.assertTrue(LatencyHistogram.getBucketUpperBound(bucket) >= v, "upper bound of " + v);
+			if (bucket > 0)
+				Assert.assertTrue(LatencyHistogram.getBucketUpperBound(bucket - 1) < v, "lower bound of " + v);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		Assert.assertEquals(h.getPercentile(99d), 0L);
+		for (long v = 1; v <= 1000; v++) {
+			h.record(v);
+		}
+		Assert.assertEquals(h.getCount(), 1000L);
+		Assert.assertEquals(h.getMax(), 1000L);
+		Assert.assertEquals(h.getMean(), 500.5d, 0.001d);
+		long p50 = h.getPercentile(50d);
+		long p99 = h.getPercentile(99d);
+		Assert.assertTrue(p50 >= 500L && p50 <= 500L * 1.125d, "p50=" + p50);
+		Assert.assertTrue(p99 >= 990L && p99 <= 1000L, "p99=" + p99);
+		Assert.assertEquals(h.getPercentile(100d), 1000L);
+	}
+}
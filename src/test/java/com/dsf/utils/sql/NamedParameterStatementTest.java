@@ -23,4 +23,19 @@ public class NamedParameterStatementTest {
 		assert k.size() == 2 && k.get(0).intValue() == 1 && k.get(1).intValue() == 3;
 		assert y.size() == 1 && y.get(0).intValue() == 2;
 	}
+
+	@Test
+	public void testUnionAll() {
+		String source = "select * from test where k = :kparam and status = ':nope'";
+		String expect = "(select * from test where k = :kparam$0 and status = ':nope')"
+				+ " UNION ALL (select * from test where k = :kparam$1 and status = ':nope')";
+
+		String result = NamedParameterStatement.unionAll(source, 2);
+		assert expect.equals(result);
+
+		Map<String, List<Integer>> paramMap = new HashMap<>();
+		NamedParameterStatement.parse(result, paramMap);
+		assert paramMap.get(NamedParameterStatement.getCopyParamName("kparam", 0)).get(0).intValue() == 1;
+		assert paramMap.get(NamedParameterStatement.getCopyParamName("kparam", 1)).get(0).intValue() == 2;
+	}
 }